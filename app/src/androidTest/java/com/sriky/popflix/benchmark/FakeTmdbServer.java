@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.benchmark;
+
+import android.content.res.AssetManager;
+import android.support.test.InstrumentationRegistry;
+
+import com.sriky.popflix.BuildConfig;
+import com.sriky.popflix.utilities.NetworkUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+/**
+ * Local stand-in for the TMDB API, serving the fixtures from the test APK's assets/tmdb folder.
+ * <p>
+ * Supported paths are /3/movie/{popular|top_rated}?page=n, /3/movie/{id} (with
+ * append_to_response), /3/movie/{id}/videos and /3/movie/{id}/reviews. Every fixture is served
+ * with an ETag, so conditional requests get a 304. Latency(time to the response headers) and
+ * bandwidth can be changed at any point to emulate different networks.
+ * </p>
+ */
+
+public class FakeTmdbServer {
+    private static final String FIXTURES_DIR = "tmdb";
+    private static final String API_PATH = "/3/movie";
+    private static final String IMAGE_PATH = "/t/p";
+    private static final int NUM_PAGES = 5;
+
+    private final MockWebServer mServer = new MockWebServer();
+    private final Map<String, byte[]> mFixtures = new HashMap<>();
+
+    private final AtomicLong mBytesServed = new AtomicLong();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+
+    private volatile long mLatencyMillis;
+    /* 0 means unlimited */
+    private volatile long mBytesPerSecond;
+
+    /**
+     * Starts the server and points {@link NetworkUtils} at it.
+     *
+     * @throws IOException If the fixtures can't be read or the server can't start.
+     */
+    public void start() throws IOException {
+        loadFixtures();
+        mServer.setDispatcher(new TmdbDispatcher());
+        mServer.start();
+        NetworkUtils.setBaseUrls(mServer.url(API_PATH).toString(),
+                mServer.url(IMAGE_PATH).toString());
+    }
+
+    /**
+     * Stops the server and points {@link NetworkUtils} back at TMDB.
+     *
+     * @throws IOException If the server fails to shut down.
+     */
+    public void shutdown() throws IOException {
+        NetworkUtils.setBaseUrls(BuildConfig.TMDB_BASE_URL, BuildConfig.TMDB_IMAGE_BASE_URL);
+        mServer.shutdown();
+    }
+
+    /**
+     * @param latencyMillis Delay before the response headers are sent.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param bytesPerSecond Rate at which response bodies are sent, 0 for unlimited.
+     */
+    public void setBandwidthBytesPerSecond(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    public long getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    public void resetCounters() {
+        mBytesServed.set(0);
+        mRequestCount.set(0);
+        mNotModifiedCount.set(0);
+    }
+
+    private void loadFixtures() throws IOException {
+        AssetManager assets = InstrumentationRegistry.getContext().getAssets();
+        String[] names = assets.list(FIXTURES_DIR);
+        for (String name : names) {
+            InputStream in = assets.open(FIXTURES_DIR + "/" + name);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                mFixtures.put(name, out.toByteArray());
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Maps a request to the fixture that answers it.
+     *
+     * @return The fixture file name, or null if the path isn't supported.
+     */
+    private static String resolveFixture(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        /* segments are "3", "movie", ... */
+        if (segments.size() < 3) return null;
+
+        String first = segments.get(2);
+        if (segments.size() == 3) {
+            if ("popular".equals(first) || "top_rated".equals(first)) {
+                String page = url.queryParameter("page");
+                int pageNumber = page == null ? 1 : Integer.parseInt(page);
+                return pageNumber <= NUM_PAGES ? first + "_" + pageNumber + ".json" : null;
+            }
+            return "movie_details.json";
+        } else if (segments.size() == 4) {
+            if ("videos".equals(segments.get(3))) return "videos.json";
+            if ("reviews".equals(segments.get(3))) return "reviews.json";
+        }
+        return null;
+    }
+
+    private class TmdbDispatcher extends Dispatcher {
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            mRequestCount.incrementAndGet();
+            MockResponse response = new MockResponse()
+                    .setHeadersDelay(mLatencyMillis, TimeUnit.MILLISECONDS);
+
+            String fixture = resolveFixture(request.getRequestUrl());
+            byte[] body = fixture != null ? mFixtures.get(fixture) : null;
+            if (body == null) {
+                return response.setResponseCode(404)
+                        .setBody("{\"status_code\":34,"
+                                + "\"status_message\":\"The resource you requested could not be found.\"}");
+            }
+
+            String etag = "\"" + fixture + "-" + body.length + "\"";
+            if (etag.equals(request.getHeader("If-None-Match"))) {
+                mNotModifiedCount.incrementAndGet();
+                return response.setResponseCode(304).setHeader("ETag", etag);
+            }
+
+            mBytesServed.addAndGet(body.length);
+            response.setResponseCode(200)
+                    .setHeader("Content-Type", "application/json;charset=utf-8")
+                    .setHeader("ETag", etag)
+                    .setBody(new Buffer().write(body));
+
+            long bytesPerSecond = mBytesPerSecond;
+            if (bytesPerSecond > 0) {
+                /* send a tenth of the per second budget every 100 millis */
+                response.throttleBody(Math.max(1, bytesPerSecond / 10), 100, TimeUnit.MILLISECONDS);
+            }
+            return response;
+        }
+    }
+}
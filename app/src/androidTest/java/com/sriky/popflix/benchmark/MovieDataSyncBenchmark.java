@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.benchmark;
+
+import android.app.Activity;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import com.sriky.popflix.R;
+import com.sriky.popflix.data.MoviesContract.MoviesEntry;
+import com.sriky.popflix.data.TestUtilities;
+import com.sriky.popflix.network.ConditionalGetTransport;
+import com.sriky.popflix.sync.MovieDataSyncTask;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * End-to-end benchmark of {@link MovieDataSyncTask#fetchMovieData(Context, String)} against the
+ * {@link FakeTmdbServer}. For every network profile it reports the sync latency, the bytes
+ * transferred and the rows written per second, both to logcat and as instrumentation status
+ * (visible in the "am instrument -r" output).
+ */
+
+public class MovieDataSyncBenchmark {
+    private static final String TAG = MovieDataSyncBenchmark.class.getSimpleName();
+
+    /* network profiles: name, latency(millis), bandwidth(bytes/sec, 0 is unlimited) */
+    private static final Object[][] NETWORK_PROFILES = {
+            {"loopback", 0L, 0L},
+            {"wifi", 40L, 2 * 1024 * 1024L},
+            {"3g", 300L, 96 * 1024L},
+    };
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private FakeTmdbServer mServer;
+
+    @Before
+    public void before() throws IOException {
+        mServer = new FakeTmdbServer();
+        mServer.start();
+    }
+
+    @After
+    public void after() throws IOException {
+        mServer.shutdown();
+    }
+
+    /**
+     * Syncs the popular category from an empty table for every network profile.
+     */
+    @Test
+    public void benchmarkColdSync() {
+        String queryPath = mContext.getString(R.string.sort_order_popular);
+        for (Object[] profile : NETWORK_PROFILES) {
+            resetState();
+            mServer.setLatencyMillis((Long) profile[1]);
+            mServer.setBandwidthBytesPerSecond((Long) profile[2]);
+
+            Bundle results = runSync("cold_" + profile[0], queryPath);
+            assertTrue("No rows were written for " + profile[0],
+                    results.getInt("rows") > 0);
+        }
+    }
+
+    /**
+     * Syncs the popular category twice, the second sync should be answered with 304s only.
+     */
+    @Test
+    public void benchmarkRevalidatedSync() {
+        String queryPath = mContext.getString(R.string.sort_order_popular);
+        resetState();
+        mServer.setLatencyMillis(40);
+        MovieDataSyncTask.fetchMovieData(mContext, queryPath);
+
+        Bundle results = runSync("revalidated_wifi", queryPath);
+        assertEquals("Revalidated sync should not transfer any payload.",
+                0L, results.getLong("bytes"));
+        assertEquals("Every page should have been revalidated.",
+                mServer.getRequestCount(), mServer.getNotModifiedCount());
+    }
+
+    /**
+     * Runs a single sync and reports the measurements.
+     *
+     * @param name      Name of the run used in the report.
+     * @param queryPath The category to sync.
+     * @return The reported measurements.
+     */
+    private Bundle runSync(String name, String queryPath) {
+        mServer.resetCounters();
+
+        long start = SystemClock.elapsedRealtime();
+        MovieDataSyncTask.fetchMovieData(mContext, queryPath);
+        long elapsedMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        int rows = countRows(queryPath);
+        Bundle results = new Bundle();
+        results.putString("name", name);
+        results.putLong("latency_ms", elapsedMillis);
+        results.putLong("bytes", mServer.getBytesServed());
+        results.putInt("requests", mServer.getRequestCount());
+        results.putInt("rows", rows);
+        results.putDouble("rows_per_sec", rows * 1000.0 / elapsedMillis);
+
+        String report = name + ": latency=" + elapsedMillis + "ms"
+                + ", bytes=" + mServer.getBytesServed()
+                + ", requests=" + mServer.getRequestCount()
+                + ", rows=" + rows
+                + ", rows/sec=" + String.format("%.1f", rows * 1000.0 / elapsedMillis);
+        Log.i(TAG, report);
+        results.putString("report", report);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, results);
+        return results;
+    }
+
+    private int countRows(String queryPath) {
+        Cursor cursor = mContext.getContentResolver().query(
+                MoviesEntry.buildCategoryUri(queryPath),
+                new String[]{MoviesEntry._ID},
+                null,
+                null,
+                null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * Empties the movies table and forgets the validators, so the next sync is a cold one.
+     */
+    private void resetState() {
+        TestUtilities.deleteAllItemsInMoviesTable(mContext);
+        ConditionalGetTransport.clearValidators(mContext);
+    }
+}
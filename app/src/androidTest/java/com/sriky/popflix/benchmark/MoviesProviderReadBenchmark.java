@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.benchmark;
+
+import android.app.Activity;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import com.sriky.popflix.data.MoviesContract.MoviesEntry;
+import com.sriky.popflix.data.TestUtilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Benchmark of the grid query through the {@link com.sriky.popflix.data.MoviesProvider}, on an
+ * idle database and while another thread keeps bulk inserting, like a sync does. Reports the
+ * p50, p95 and max read latency to logcat and as instrumentation status.
+ */
+
+public class MoviesProviderReadBenchmark {
+    private static final String TAG = MoviesProviderReadBenchmark.class.getSimpleName();
+
+    /* the category the reader queries */
+    private static final String CATEGORY = "popular";
+    /* rows of the category the reader queries, about what a sync of a few pages writes */
+    private static final int CATEGORY_ROWS = 500;
+    /* rows written by every bulk insert of the writer, each in a single transaction */
+    private static final int BULK_INSERT_ROWS = 5000;
+    /* movie IDs of the writer start here, clear of the category */
+    private static final int WRITER_FIRST_MOVIE_ID = 100000;
+    private static final int READS = 200;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    @Before
+    public void before() {
+        TestUtilities.deleteAllItemsInMoviesTable(mContext);
+        ContentValues[] values = new ContentValues[CATEGORY_ROWS];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = createMovie(i + 1);
+        }
+        mContentResolver.bulkInsert(MoviesEntry.buildCategoryUri(CATEGORY), values);
+    }
+
+    @After
+    public void after() {
+        TestUtilities.deleteAllItemsInMoviesTable(mContext);
+    }
+
+    /**
+     * Queries the category with no writes going on.
+     */
+    @Test
+    public void benchmarkIdleReads() {
+        report("idle", measureReads());
+    }
+
+    /**
+     * Queries the category while bulk inserts run back to back on another thread. With
+     * write-ahead logging the reads should stay close to the idle ones.
+     */
+    @Test
+    public void benchmarkReadsDuringBulkInsert() throws InterruptedException {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch writing = new CountDownLatch(1);
+        final int[] bulkInserts = new int[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues[] values = new ContentValues[BULK_INSERT_ROWS];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = createMovie(WRITER_FIRST_MOVIE_ID + i);
+                }
+                writing.countDown();
+                while (!stop.get()) {
+                    mContentResolver.bulkInsert(MoviesEntry.CONTENT_URI, values);
+                    bulkInserts[0]++;
+                }
+            }
+        }, "bulk-insert-writer");
+        writer.start();
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        long[] latencies;
+        try {
+            latencies = measureReads();
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        assertTrue("The reads didn't overlap any bulk insert.", bulkInserts[0] > 0);
+        report("during_bulk_insert", latencies);
+    }
+
+    /**
+     * Runs the grid query of the category {@link #READS} times.
+     *
+     * @return The latency(micros) of every read, sorted.
+     */
+    private long[] measureReads() {
+        long[] latencies = new long[READS];
+        for (int i = 0; i < READS; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mContentResolver.query(MoviesEntry.buildCategoryUri(CATEGORY),
+                    null,
+                    null,
+                    null,
+                    null);
+            /* the query only runs once the window gets filled */
+            int count = cursor.getCount();
+            cursor.close();
+            latencies[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+
+            /* the writer never touches the category, readers see the committed rows only */
+            assertEquals("Unexpected number of rows.", CATEGORY_ROWS, count);
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private void report(String name, long[] latencies) {
+        long p50 = latencies[latencies.length / 2];
+        long p95 = latencies[(int) (latencies.length * 0.95)];
+        long max = latencies[latencies.length - 1];
+
+        Bundle results = new Bundle();
+        results.putString("name", name);
+        results.putLong("p50_us", p50);
+        results.putLong("p95_us", p95);
+        results.putLong("max_us", max);
+
+        String report = name + ": reads=" + latencies.length
+                + ", p50=" + p50 + "us"
+                + ", p95=" + p95 + "us"
+                + ", max=" + max + "us";
+        Log.i(TAG, report);
+        results.putString("report", report);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, results);
+    }
+
+    private static ContentValues createMovie(int movieId) {
+        ContentValues cv = new ContentValues();
+        cv.put(MoviesEntry.MOVIE_ID, movieId);
+        cv.put(MoviesEntry.MOVIE_TITLE, "Benchmark " + movieId);
+        cv.put(MoviesEntry.MOVIE_OVERVIEW, "This movie is about benchmarking the database!");
+        cv.put(MoviesEntry.MOVIE_POSTER_PATH, "/poster" + movieId + ".jpg");
+        cv.put(MoviesEntry.MOVIE_RELEASE_DATE, "2017-09-18");
+        cv.put(MoviesEntry.MOVIE_VOTE_AVERAGE, "7.5");
+        cv.put(MoviesEntry.MOVIE_VOTE_COUNT, "656");
+        return cv;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.benchmark;
+
+import android.app.Activity;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import com.sriky.popflix.data.MoviesContract.FavouritesEntry;
+import com.sriky.popflix.data.MoviesContract.MovieCategoryEntry;
+import com.sriky.popflix.data.MoviesContract.MoviesEntry;
+import com.sriky.popflix.data.TestUtilities;
+import com.sriky.popflix.utilities.MovieDataUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Benchmark of the hot queries through the {@link com.sriky.popflix.data.MoviesProvider} on a
+ * 50k movie table: the category grid, the details of a movie, the favourites grid and the
+ * sync's rewrite of a category. Reports the p50, p95 and max latency to logcat and as
+ * instrumentation status.
+ */
+
+public class MoviesQueryBenchmark {
+    private static final String TAG = MoviesQueryBenchmark.class.getSimpleName();
+
+    /* 50 categories of 1000 movies each, i.e. 50k movies and category rows */
+    private static final int CATEGORIES = 50;
+    private static final int MOVIES_PER_CATEGORY = 1000;
+    private static final int MOVIES_PER_PAGE = 20;
+    private static final int FAVOURITES = 500;
+    private static final int QUERIES = 100;
+    private static final int CATEGORY_SYNCS = 10;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    @Before
+    public void before() {
+        TestUtilities.deleteAllItemsInMoviesTable(mContext);
+        for (int category = 0; category < CATEGORIES; category++) {
+            mContentResolver.bulkInsert(getCategoryUri(category), createCategory(category, false));
+        }
+
+        /* every 100th movie is a favourite */
+        ContentValues[] favourites = new ContentValues[FAVOURITES];
+        for (int i = 0; i < favourites.length; i++) {
+            favourites[i] = createMovie(i * 100 + 1);
+        }
+        mContentResolver.bulkInsert(FavouritesEntry.CONTENT_URI, favourites);
+    }
+
+    @After
+    public void after() {
+        TestUtilities.deleteAllItemsInMoviesTable(mContext);
+    }
+
+    /**
+     * Queries the grid of a category, in rank order.
+     */
+    @Test
+    public void benchmarkCategoryGrid() {
+        long[] latencies = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            long start = System.nanoTime();
+            int count = queryCount(getCategoryUri(i % CATEGORIES),
+                    MovieDataUtils.MOVIE_DATA_PROJECTION);
+            latencies[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            assertEquals("Unexpected number of rows.", MOVIES_PER_CATEGORY, count);
+        }
+        report("category_grid", latencies);
+    }
+
+    /**
+     * Queries single movies, like the details screen does.
+     */
+    @Test
+    public void benchmarkMovieWithId() {
+        Random random = new Random(42);
+        long[] latencies = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String movieId = Integer.toString(
+                    random.nextInt(CATEGORIES * MOVIES_PER_CATEGORY) + 1);
+            long start = System.nanoTime();
+            int count = queryCount(MoviesEntry.buildMovieUriWithId(movieId), null);
+            latencies[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            assertEquals("Unexpected number of rows.", 1, count);
+        }
+        report("movie_with_id", latencies);
+    }
+
+    /**
+     * Queries the favourites grid.
+     */
+    @Test
+    public void benchmarkFavouritesGrid() {
+        long[] latencies = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            long start = System.nanoTime();
+            int count = queryCount(FavouritesEntry.CONTENT_URI,
+                    MovieDataUtils.MOVIE_DATA_PROJECTION);
+            latencies[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            assertEquals("Unexpected number of rows.", FAVOURITES, count);
+        }
+        report("favourites_grid", latencies);
+    }
+
+    /**
+     * Rewrites a category with every movie re-ranked, the worst case of a sync that finds no
+     * new movies.
+     */
+    @Test
+    public void benchmarkCategorySync() {
+        long[] latencies = new long[CATEGORY_SYNCS];
+        for (int i = 0; i < CATEGORY_SYNCS; i++) {
+            /* reversed on even runs, back in order on odd ones */
+            ContentValues[] values = createCategory(0, i % 2 == 0);
+            long start = System.nanoTime();
+            int rowsWritten = mContentResolver.bulkInsert(getCategoryUri(0), values);
+            latencies[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            assertEquals("Every movie should be re-ranked.", MOVIES_PER_CATEGORY, rowsWritten);
+        }
+        report("category_sync", latencies);
+    }
+
+    private int queryCount(Uri uri, String[] projection) {
+        Cursor cursor = mContentResolver.query(uri, projection, null, null, null);
+        /* the query only runs once the window gets filled */
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void report(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        long p50 = latencies[latencies.length / 2];
+        long p95 = latencies[(int) (latencies.length * 0.95)];
+        long max = latencies[latencies.length - 1];
+
+        Bundle results = new Bundle();
+        results.putString("name", name);
+        results.putLong("p50_us", p50);
+        results.putLong("p95_us", p95);
+        results.putLong("max_us", max);
+
+        String report = name + ": runs=" + latencies.length
+                + ", p50=" + p50 + "us"
+                + ", p95=" + p95 + "us"
+                + ", max=" + max + "us";
+        Log.i(TAG, report);
+        results.putString("report", report);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, results);
+    }
+
+    private static Uri getCategoryUri(int category) {
+        return MoviesEntry.buildCategoryUri("benchmark_" + category);
+    }
+
+    /**
+     * @param category The index of the category.
+     * @param reversed Whether the movies are ranked in reverse.
+     * @return The movies of the category, in rank order with their page.
+     */
+    private static ContentValues[] createCategory(int category, boolean reversed) {
+        ContentValues[] values = new ContentValues[MOVIES_PER_CATEGORY];
+        for (int i = 0; i < values.length; i++) {
+            int movieId = category * MOVIES_PER_CATEGORY + (reversed ? values.length - i : i + 1);
+            values[i] = createMovie(movieId);
+            values[i].put(MovieCategoryEntry.PAGE, i / MOVIES_PER_PAGE + 1);
+        }
+        return values;
+    }
+
+    private static ContentValues createMovie(int movieId) {
+        ContentValues cv = new ContentValues();
+        cv.put(MoviesEntry.MOVIE_ID, movieId);
+        cv.put(MoviesEntry.MOVIE_TITLE, "Benchmark " + movieId);
+        cv.put(MoviesEntry.MOVIE_OVERVIEW, "This movie is about benchmarking the database!");
+        cv.put(MoviesEntry.MOVIE_POSTER_PATH, "/poster" + movieId + ".jpg");
+        cv.put(MoviesEntry.MOVIE_RELEASE_DATE, "2017-09-18");
+        cv.put(MoviesEntry.MOVIE_VOTE_AVERAGE, 7.5);
+        cv.put(MoviesEntry.MOVIE_VOTE_COUNT, 656);
+        return cv;
+    }
+}
@@ -21,6 +21,8 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.test.InstrumentationRegistry;
 
+import com.sriky.popflix.data.MoviesContract.FavouritesEntry;
+import com.sriky.popflix.data.MoviesContract.MovieCategoryEntry;
 import com.sriky.popflix.data.MoviesContract.MoviesEntry;
 
 import org.junit.Before;
@@ -37,10 +39,11 @@ import static junit.framework.Assert.assertTrue;
  * Class to test the database used with PopFlix. Following are the tests:
  * 1). Creation of Database and tables.
  * 2). Inserting single item into the movies table.
- * 3). Inserting items with the same movie ID should replace old entry as per the defined contract.
+ * 3). Inserting items with the same movie ID should fail, the provider merges them instead.
  * 4). _ID field part of BaseColumns autoincrement as per the defined contract.
- * 5. Database version update dropping the old table.
+ * 5. Database upgrades from the released version 2 and from version 6 keep the stored rows.
  * 6. Deleting all items.
+ * 7. The database uses write-ahead logging, so queries don't wait for writers.
  */
 
 public class TestMoviesDatabase {
@@ -66,6 +69,8 @@ public class TestMoviesDatabase {
 
         /* add the names of tables */
         tableNameHashSet.add(MoviesEntry.TABLE_NAME);
+        tableNameHashSet.add(FavouritesEntry.TABLE_NAME);
+        tableNameHashSet.add(MovieCategoryEntry.TABLE_NAME);
 
         MoviesDbHelper moviesDbHelper = new MoviesDbHelper(mContext);
         SQLiteDatabase db = moviesDbHelper.getReadableDatabase();
@@ -166,10 +171,11 @@ public class TestMoviesDatabase {
     }
 
     /**
-     * Test to validate replacement of items when there is a collision with the Movie_ID.
+     * Test to validate a second item with the same Movie_ID is rejected, rather than replacing
+     * the stored one.
      */
     @Test
-    public void testDuplicateMovieIdInsertBehaviorShouldReplace() {
+    public void testDuplicateMovieIdInsertBehaviorShouldFail() {
 
         /* we need to clear all the items prior this test */
         deletedAllItemsInMoviesTable();
@@ -180,34 +186,36 @@ public class TestMoviesDatabase {
         /* Insert the ContentValues into database */
         MoviesDbHelper moviesDbHelper = new MoviesDbHelper(mContext);
         SQLiteDatabase db = moviesDbHelper.getWritableDatabase();
-        db.insert(
+        long firstRowId = db.insert(
                 MoviesEntry.TABLE_NAME,
                 null,
                 testMovieValues);
 
         /* Insert the same ContentValues into database, where the movie_id is the same. */
-        db.insert(
+        long secondRowId = db.insert(
                 MoviesEntry.TABLE_NAME,
                 null,
                 testMovieValues);
+        assertEquals("Insert with a duplicate movie ID should fail.", -1, secondRowId);
 
         /* Query for the movie records */
-        Cursor newMoviesIdCursor = db.query(
+        Cursor moviesIdCursor = db.query(
                 MoviesEntry.TABLE_NAME,
-                new String[]{MoviesEntry.MOVIE_ID},
+                new String[]{MoviesEntry._ID},
                 null,
                 null,
                 null,
                 null,
                 null);
 
-        String recordWithNewIdNotFound =
-                "New record did not overwrite the previous record for the same movie ID.";
-        assertTrue(recordWithNewIdNotFound,
-                newMoviesIdCursor.getCount() == 1);
+        assertEquals("There should be a single record for the movie ID.",
+                1, moviesIdCursor.getCount());
+        assertTrue(moviesIdCursor.moveToFirst());
+        assertEquals("The stored record should have been kept.",
+                firstRowId, moviesIdCursor.getLong(0));
 
         /* close the cursor and db. */
-        newMoviesIdCursor.close();
+        moviesIdCursor.close();
         moviesDbHelper.close();
     }
 
@@ -241,7 +249,7 @@ public class TestMoviesDatabase {
 
         /*
          * Now we need to change the movie_id associated with our test content values because the
-         * database policy is to replace identical movie ids on conflict.
+         * database rejects identical movie ids.
          */
         long nextMovieIdAfterOriginalMovieId = originalMovieId + 1;
         testMovieValues.put(MoviesEntry.MOVIE_ID, nextMovieIdAfterOriginalMovieId);
@@ -263,13 +271,205 @@ public class TestMoviesDatabase {
     }
 
     /**
-     * This method tests the {@link MoviesDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the movie table from
-     * the database and then have the table recreated.
+     * Tests the upgrade from version 6 backfills the release day and year of the stored movies
+     * and favourites, and stores the ratings as REAL.
      */
     @Test
-    public void testOnUpgradeBehavesCorrectly() {
-       //TODO: implement proper table update test case!
+    public void testUpgradeFromVersion6BackfillsReleaseDay() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            /* the version 6 tables, with the columns the upgrade reads */
+            for (String table : new String[]{MoviesEntry.TABLE_NAME, FavouritesEntry.TABLE_NAME}) {
+                db.execSQL("CREATE TABLE " + table + " ("
+                        + MoviesEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + MoviesEntry.MOVIE_ID + " INTEGER NOT NULL, "
+                        + MoviesEntry.MOVIE_TITLE + " TEXT NOT NULL, "
+                        + MoviesEntry.MOVIE_POSTER_PATH + " TEXT NOT NULL, "
+                        + MoviesEntry.MOVIE_OVERVIEW + " MEDIUMTEXT NOT NULL, "
+                        + MoviesEntry.MOVIE_RELEASE_DATE + " INTEGER NOT NULL, "
+                        + MoviesEntry.MOVIE_VOTE_AVERAGE + " INTEGER NOT NULL, "
+                        + MoviesEntry.MOVIE_VOTE_COUNT + " INTEGER NOT NULL, "
+                        + " UNIQUE (" + MoviesEntry.MOVIE_ID + "));");
+                db.execSQL("INSERT INTO " + table + " VALUES (1, 10, 't', 'p', 'o', '2017-09-18', 8.0, 1)");
+                db.execSQL("INSERT INTO " + table + " VALUES (2, 20, 't', 'p', 'o', '', 7.5, 1)");
+            }
+            db.execSQL("CREATE INDEX " + FavouritesEntry.TABLE_NAME + "_grid ON "
+                    + FavouritesEntry.TABLE_NAME + " (" + FavouritesEntry.MOVIE_ID + ")");
+
+            new MoviesDbHelper(mContext).onUpgrade(db, 6, MoviesDbHelper.DATABASE_VERSION);
+
+            for (String table : new String[]{MoviesEntry.TABLE_NAME, FavouritesEntry.TABLE_NAME}) {
+                Cursor cursor = db.query(table,
+                        new String[]{MoviesEntry._ID,
+                                MoviesEntry.MOVIE_RELEASE_DAY,
+                                MoviesEntry.MOVIE_RELEASE_YEAR,
+                                "typeof(" + MoviesEntry.MOVIE_VOTE_AVERAGE + ")"},
+                        null,
+                        null,
+                        null,
+                        null,
+                        MoviesEntry._ID);
+                assertEquals(2, cursor.getCount());
+
+                cursor.moveToPosition(0);
+                assertEquals("The _ID should be kept.", 1, cursor.getLong(0));
+                assertEquals("2017-09-18 is day 17427.", 17427, cursor.getLong(1));
+                assertEquals(2017, cursor.getInt(2));
+                assertEquals("real", cursor.getString(3));
+
+                cursor.moveToPosition(1);
+                assertTrue("No release day without a date.", cursor.isNull(1));
+                assertTrue("No release year without a date.", cursor.isNull(2));
+                cursor.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Tests the upgrade of a version 2 database, the schema of the released app, to the current
+     * version: the favourites move out of the user_favourite flag into their own table, the
+     * popular and top_rated flags become ranked categories, the release day and year are
+     * backfilled and the indexes of the hot queries are created.
+     */
+    @Test
+    public void testUpgradeFromVersion2() {
+        String databaseName = "movies_upgrade_test.db";
+        mContext.deleteDatabase(databaseName);
+
+        SQLiteDatabase db = mContext.openOrCreateDatabase(databaseName,
+                Context.MODE_PRIVATE, null);
+        /* the movies table of version 2 */
+        db.execSQL("CREATE TABLE movies ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "movie_id INTEGER NOT NULL, "
+                + "title TEXT NOT NULL, "
+                + "poster_path TEXT NOT NULL, "
+                + "overview MEDIUMTEXT NOT NULL, "
+                + "release_date INTEGER NOT NULL, "
+                + "vote_average INTEGER NOT NULL, "
+                + "vote_count INTEGER NOT NULL, "
+                + "user_favourite BIT, "
+                + "popular BIT, "
+                + "top_rated BIT, "
+                + " UNIQUE (movie_id) ON CONFLICT REPLACE);");
+        /* _id, movie_id, title, poster_path, overview, release_date, vote_average, vote_count,
+         * user_favourite, popular, top_rated */
+        db.execSQL("INSERT INTO movies VALUES (1, 100, 'A', '/a.jpg', 'o', '2017-09-18', 8.0, 10, 1, 1, 0)");
+        db.execSQL("INSERT INTO movies VALUES (2, 200, 'B', '/b.jpg', 'o', '', 7.5, 20, 0, 1, 1)");
+        db.execSQL("INSERT INTO movies VALUES (3, 300, 'C', '/c.jpg', 'o', '2016-02-29', 6.5, 30, 0, 0, 1)");
+        db.setVersion(2);
+        db.close();
+
+        MoviesDbHelper moviesDbHelper = new MoviesDbHelper(mContext, databaseName);
+        db = moviesDbHelper.getWritableDatabase();
+        try {
+            assertEquals(MoviesDbHelper.DATABASE_VERSION, db.getVersion());
+
+            /* the favourite is a snapshot of the flagged movie */
+            Cursor cursor = db.query(FavouritesEntry.TABLE_NAME,
+                    new String[]{FavouritesEntry.MOVIE_ID,
+                            FavouritesEntry.MOVIE_TITLE,
+                            FavouritesEntry.MOVIE_RELEASE_DAY,
+                            FavouritesEntry.MOVIE_RELEASE_YEAR,
+                            "typeof(" + FavouritesEntry.MOVIE_VOTE_AVERAGE + ")"},
+                    null,
+                    null,
+                    null,
+                    null,
+                    null);
+            assertEquals("Only the flagged movie should be a favourite.", 1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(100, cursor.getInt(0));
+            assertEquals("A", cursor.getString(1));
+            assertEquals("2017-09-18 is day 17427.", 17427, cursor.getLong(2));
+            assertEquals(2017, cursor.getInt(3));
+            assertEquals("real", cursor.getString(4));
+            cursor.close();
+
+            /* the flags are categories, ranked in the order the movies were stored */
+            cursor = db.query(MovieCategoryEntry.TABLE_NAME,
+                    new String[]{MovieCategoryEntry.CATEGORY,
+                            MovieCategoryEntry.MOVIE_ID,
+                            MovieCategoryEntry.RANK},
+                    null,
+                    null,
+                    null,
+                    null,
+                    MovieCategoryEntry.CATEGORY + ", " + MovieCategoryEntry.RANK);
+            String[][] expectedMemberships = {
+                    {"popular", "100", "1"},
+                    {"popular", "200", "2"},
+                    {"top_rated", "200", "2"},
+                    {"top_rated", "300", "3"}};
+            assertEquals(expectedMemberships.length, cursor.getCount());
+            for (String[] membership : expectedMemberships) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(membership[0], cursor.getString(0));
+                assertEquals(membership[1], cursor.getString(1));
+                assertEquals(membership[2], cursor.getString(2));
+            }
+            cursor.close();
+
+            /* the movies keep their _IDs, lose the flags and get typed release columns */
+            cursor = db.query(MoviesEntry.TABLE_NAME,
+                    new String[]{MoviesEntry._ID,
+                            MoviesEntry.MOVIE_RELEASE_DAY,
+                            MoviesEntry.MOVIE_RELEASE_YEAR,
+                            "typeof(" + MoviesEntry.MOVIE_VOTE_AVERAGE + ")"},
+                    null,
+                    null,
+                    null,
+                    null,
+                    MoviesEntry._ID);
+            assertEquals(3, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(1, cursor.getLong(0));
+            assertEquals(17427, cursor.getLong(1));
+            assertEquals("real", cursor.getString(3));
+            assertTrue(cursor.moveToNext());
+            assertTrue("No release day without a date.", cursor.isNull(1));
+            assertTrue("No release year without a date.", cursor.isNull(2));
+            assertTrue(cursor.moveToNext());
+            assertEquals("2016-02-29 is day 16860.", 16860, cursor.getLong(1));
+            assertEquals(2016, cursor.getInt(2));
+            cursor.close();
+
+            HashSet<String> movieColumns = new HashSet<>();
+            cursor = db.rawQuery("PRAGMA table_info(" + MoviesEntry.TABLE_NAME + ")", null);
+            while (cursor.moveToNext()) {
+                movieColumns.add(cursor.getString(cursor.getColumnIndex("name")));
+            }
+            cursor.close();
+            assertFalse(movieColumns.contains("user_favourite"));
+            assertFalse(movieColumns.contains("popular"));
+            assertFalse(movieColumns.contains("top_rated"));
+
+            /* the covering indexes, with the same columns as on a fresh install */
+            assertEquals(MovieCategoryEntry.CATEGORY + "," + MovieCategoryEntry.RANK + ","
+                            + MovieCategoryEntry.MOVIE_ID + "," + MovieCategoryEntry.PAGE,
+                    queryIndexColumns(db, MovieCategoryEntry.TABLE_NAME + "_rank"));
+            assertEquals(FavouritesEntry.MOVIE_ID + "," + FavouritesEntry.MOVIE_POSTER_PATH,
+                    queryIndexColumns(db, FavouritesEntry.TABLE_NAME + "_grid"));
+        } finally {
+            moviesDbHelper.close();
+            mContext.deleteDatabase(databaseName);
+        }
+    }
+
+    /**
+     * @return The columns of the index in order, comma separated.
+     */
+    private static String queryIndexColumns(SQLiteDatabase db, String index) {
+        Cursor cursor = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+        StringBuilder columns = new StringBuilder();
+        while (cursor.moveToNext()) {
+            columns.append(columns.length() == 0 ? "" : ",")
+                    .append(cursor.getString(cursor.getColumnIndex("name")));
+        }
+        cursor.close();
+        return columns.toString();
     }
 
     /**
@@ -306,4 +506,21 @@ public class TestMoviesDatabase {
         db.close();
         moviesDBHelper.close();
     }
+
+    /**
+     * Method to test the database is opened in write-ahead logging mode.
+     */
+    @Test
+    public void testWriteAheadLoggingEnabled() {
+        MoviesDbHelper moviesDbHelper = new MoviesDbHelper(mContext);
+        SQLiteDatabase db = moviesDbHelper.getWritableDatabase();
+
+        assertTrue("Write-ahead logging should be enabled.", db.isWriteAheadLoggingEnabled());
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Unexpected journal mode.", "wal", cursor.getString(0).toLowerCase());
+
+        cursor.close();
+        moviesDbHelper.close();
+    }
 }
@@ -16,9 +16,13 @@
 package com.sriky.popflix.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
@@ -30,11 +34,15 @@ import android.support.test.InstrumentationRegistry;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
+import com.sriky.popflix.data.MoviesContract.FavouritesEntry;
+import com.sriky.popflix.data.MoviesContract.MovieCategoryEntry;
 import com.sriky.popflix.data.MoviesContract.MoviesEntry;
 
 /**
@@ -47,6 +55,10 @@ import com.sriky.popflix.data.MoviesContract.MoviesEntry;
  */
 
 public class TestMoviesProvider {
+    /* categories are the API paths of the lists */
+    private static final String POPULAR = "popular";
+    private static final String TOP_RATED = "top_rated";
+
     /* Context used to access various parts of the system */
     private final Context mContext = InstrumentationRegistry.getTargetContext();
 
@@ -82,6 +94,19 @@ public class TestMoviesProvider {
         assertEquals(movieWithMovieIdUriCodeDoesNotMatch,
                 expectedMovieWithMovieIdCode,
                 actualMovieWithMovieIdCode);
+
+        /* Test that the code returned from our matcher matches the expected category code */
+        assertEquals("Error: The CODE_MOVIES_IN_CATEGORY URI was matched incorrectly!",
+                MoviesProvider.CODE_MOVIES_IN_CATEGORY,
+                uriMatcher.match(MoviesEntry.buildCategoryUri(POPULAR)));
+
+        /* Test that the codes returned from our matcher match the expected favourites codes */
+        assertEquals("Error: The CODE_FAVOURITES URI was matched incorrectly!",
+                MoviesProvider.CODE_FAVOURITES,
+                uriMatcher.match(FavouritesEntry.CONTENT_URI));
+        assertEquals("Error: The CODE_FAVOURITE_WITH_ID URI was matched incorrectly!",
+                MoviesProvider.CODE_FAVOURITE_WITH_ID,
+                uriMatcher.match(FavouritesEntry.buildFavouriteUriWithId(randomMovieId)));
     }
 
     /**
@@ -226,6 +251,296 @@ public class TestMoviesProvider {
         cursor.close();
     }
 
+    /**
+     * This test tests bulkInsert with rows that don't all have the same columns, which are
+     * inserted with different statements.
+     */
+    @Test
+    public void testBulkInsertWithDifferentColumns() {
+        ContentValues movieWithRowId = createMovieWithId(1);
+        movieWithRowId.put(MoviesEntry._ID, 42);
+        ContentValues movieWithDouble = createMovieWithId(2);
+        movieWithDouble.put(MoviesEntry.MOVIE_VOTE_AVERAGE, 7.5);
+        ContentValues otherMovie = createMovieWithId(3);
+
+        int insertCount = mContext.getContentResolver().bulkInsert(MoviesEntry.CONTENT_URI,
+                new ContentValues[]{movieWithRowId, movieWithDouble, otherMovie});
+        assertEquals("Not all the rows were inserted.", 3, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                MoviesEntry.CONTENT_URI,
+                new String[]{MoviesEntry._ID, MoviesEntry.MOVIE_VOTE_AVERAGE},
+                null,
+                null,
+                MoviesEntry.MOVIE_ID);
+        assertEquals(3, cursor.getCount());
+
+        cursor.moveToPosition(0);
+        assertEquals("The _ID supplied should be used.", 42, cursor.getLong(0));
+        cursor.moveToPosition(1);
+        assertEquals("Double should be stored as is.", 7.5, cursor.getDouble(1));
+        cursor.moveToPosition(2);
+        assertTrue(cursor.getLong(0) > 0);
+        cursor.close();
+    }
+
+    /**
+     * This test tests bulkInsert merges a row for a stored movie into it, keeping its _ID, the
+     * columns the row doesn't have and its categories.
+     */
+    @Test
+    public void testBulkInsertMergesStoredMovie() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ContentValues movie = TestUtilities.createMoviesContentValues();
+        contentResolver.bulkInsert(MoviesEntry.buildCategoryUri(POPULAR),
+                new ContentValues[]{movie});
+
+        String movieId = movie.getAsString(MoviesEntry.MOVIE_ID);
+        long rowId = queryRowId(contentResolver, movieId);
+
+        /* the same movie fetched again, with a new title and without an overview */
+        ContentValues resyncedMovie = new ContentValues();
+        resyncedMovie.put(MoviesEntry.MOVIE_ID, movie.getAsInteger(MoviesEntry.MOVIE_ID));
+        resyncedMovie.put(MoviesEntry.MOVIE_TITLE, "Resynced");
+        assertEquals(1, contentResolver.bulkInsert(MoviesEntry.CONTENT_URI,
+                new ContentValues[]{resyncedMovie}));
+
+        Cursor cursor = contentResolver.query(MoviesEntry.buildCategoryUri(POPULAR),
+                null,
+                null,
+                null,
+                null);
+        assertEquals("The movie should be stored once and stay in its category.",
+                1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("The _ID should be kept.",
+                rowId, cursor.getLong(cursor.getColumnIndex(MoviesEntry._ID)));
+        assertEquals("The title should be updated.",
+                "Resynced", cursor.getString(cursor.getColumnIndex(MoviesEntry.MOVIE_TITLE)));
+        assertEquals("The overview should be kept.",
+                movie.getAsString(MoviesEntry.MOVIE_OVERVIEW),
+                cursor.getString(cursor.getColumnIndex(MoviesEntry.MOVIE_OVERVIEW)));
+        cursor.close();
+    }
+
+    /**
+     * This test tests a bulkInsert into a category replaces its movies in rank order, writing
+     * only the movies that changed, and leaves the other categories and the favourites alone.
+     */
+    @Test
+    public void testCategoryBulkInsertReplacesCategory() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Uri popularUri = MoviesEntry.buildCategoryUri(POPULAR);
+        contentResolver.bulkInsert(popularUri, new ContentValues[]{
+                createMovieWithId(1), createMovieWithId(2), createMovieWithId(3)});
+        contentResolver.bulkInsert(MoviesEntry.buildCategoryUri(TOP_RATED),
+                new ContentValues[]{createMovieWithId(1)});
+
+        contentResolver.insert(FavouritesEntry.CONTENT_URI, createMovieWithId(2));
+        long unchangedRowId = queryRowId(contentResolver, "3");
+
+        /* 1 and 2 dropped out, 3 moved up and 4 is new */
+        int rowsWritten = contentResolver.bulkInsert(popularUri, new ContentValues[]{
+                createMovieWithId(4), createMovieWithId(3)});
+        assertEquals("Only the movies that changed should be written.", 4, rowsWritten);
+        assertEquals("Nothing should be written for an unchanged category.",
+                0, contentResolver.bulkInsert(popularUri, new ContentValues[]{
+                        createMovieWithId(4), createMovieWithId(3)}));
+
+        /* no sort order, the category's rank order */
+        Cursor cursor = contentResolver.query(popularUri,
+                new String[]{MoviesEntry.MOVIE_ID, MovieCategoryEntry.RANK},
+                null,
+                null,
+                null);
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(4, cursor.getInt(0));
+        assertEquals(1, cursor.getInt(1));
+        assertTrue(cursor.moveToNext());
+        assertEquals(3, cursor.getInt(0));
+        assertEquals(2, cursor.getInt(1));
+        cursor.close();
+
+        assertEquals("The unchanged movie should be kept as is.",
+                unchangedRowId, queryRowId(contentResolver, "3"));
+        /* still top rated */
+        queryRowId(contentResolver, "1");
+        Cursor droppedCursor = contentResolver.query(MoviesEntry.buildMovieUriWithId("2"),
+                null,
+                null,
+                null,
+                null);
+        assertEquals("A movie in no category should be deleted.", 0, droppedCursor.getCount());
+        droppedCursor.close();
+
+        /* the favourite's snapshot outlives the movie */
+        Cursor favouriteCursor = contentResolver.query(
+                FavouritesEntry.buildFavouriteUriWithId("2"),
+                new String[]{FavouritesEntry.MOVIE_TITLE},
+                null,
+                null,
+                null);
+        assertTrue("The favourite should be kept.", favouriteCursor.moveToFirst());
+        assertEquals("Test 2", favouriteCursor.getString(0));
+        favouriteCursor.close();
+    }
+
+    /**
+     * This test tests a category is paged through by rank, each page starting after the key of
+     * the last movie of the previous one.
+     */
+    @Test
+    public void testCategoryPages() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Uri popularUri = MoviesEntry.buildCategoryUri(POPULAR);
+        contentResolver.bulkInsert(popularUri, new ContentValues[]{createMovieWithId(5),
+                createMovieWithId(4), createMovieWithId(3), createMovieWithId(2),
+                createMovieWithId(1)});
+
+        String[] projection = {MoviesEntry.MOVIE_ID, MovieCategoryEntry.RANK};
+        long afterKey = 0;
+        int[] pageSizes = {2, 2, 1, 0};
+        int movieId = 5;
+        for (int pageSize : pageSizes) {
+            Cursor cursor = contentResolver.query(
+                    MoviesContract.buildPageUri(popularUri, afterKey, 2),
+                    projection,
+                    null,
+                    null,
+                    null);
+            assertEquals(pageSize, cursor.getCount());
+            while (cursor.moveToNext()) {
+                assertEquals("The movies should be in rank order.", movieId--, cursor.getInt(0));
+                afterKey = cursor.getLong(1);
+            }
+            cursor.close();
+        }
+
+        try {
+            contentResolver.query(MoviesContract.buildPageUri(popularUri, 0, 2),
+                    projection,
+                    null,
+                    null,
+                    MoviesEntry.MOVIE_TITLE);
+            fail("A page can't be sorted by another column than its key.");
+        } catch (IllegalArgumentException e) {
+            /* expected */
+        }
+    }
+
+    /**
+     * This test tests applyBatch applies all of its operations, and rolls all of them back when
+     * one of them fails.
+     */
+    @Test
+    public void testApplyBatch() throws Exception {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.insert(FavouritesEntry.CONTENT_URI, createMovieWithId(2));
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(FavouritesEntry.MOVIE_TITLE, "Renamed");
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(FavouritesEntry.CONTENT_URI)
+                .withValues(createMovieWithId(1))
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(
+                FavouritesEntry.buildFavouriteUriWithId("1"))
+                .withValues(renamed)
+                .build());
+        operations.add(ContentProviderOperation.newDelete(
+                FavouritesEntry.buildFavouriteUriWithId("2"))
+                .build());
+        ContentProviderResult[] results =
+                contentResolver.applyBatch(MoviesContract.CONTENT_AUTHORITY, operations);
+        assertEquals("Every operation should have a result.", 3, results.length);
+        assertEquals("The favourite should be updated.", 1, (int) results[1].count);
+        assertEquals("The favourite should be deleted.", 1, (int) results[2].count);
+        assertEquals("Renamed", queryFavouriteTitles(contentResolver));
+
+        /* the delete of a missing favourite fails the batch after the update was applied */
+        operations.clear();
+        operations.add(ContentProviderOperation.newUpdate(
+                FavouritesEntry.buildFavouriteUriWithId("1"))
+                .withValues(createMovieWithId(1))
+                .build());
+        operations.add(ContentProviderOperation.newDelete(
+                FavouritesEntry.buildFavouriteUriWithId("2"))
+                .withExpectedCount(1)
+                .build());
+        try {
+            contentResolver.applyBatch(MoviesContract.CONTENT_AUTHORITY, operations);
+            fail("The batch should fail.");
+        } catch (OperationApplicationException e) {
+            /* expected */
+        }
+        assertEquals("The failed batch should be rolled back.",
+                "Renamed", queryFavouriteTitles(contentResolver));
+    }
+
+    /**
+     * This test tests the sync brackets turn the automatic checkpoints off and back on, on the
+     * connection that the writes commit on.
+     */
+    @Test
+    public void testSyncBracketsAutoCheckpoints() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ContentProviderClient client =
+                contentResolver.acquireContentProviderClient(MoviesContract.CONTENT_AUTHORITY);
+        assertNotNull(client);
+        try {
+            MoviesProvider provider = (MoviesProvider) client.getLocalContentProvider();
+            long walAutoCheckpointPages = provider.getWalAutoCheckpointPages();
+            assertTrue("Automatic checkpoints should be on.", walAutoCheckpointPages > 0);
+
+            contentResolver.call(MoviesContract.BASE_CONTENT_URI,
+                    MoviesContract.METHOD_BEGIN_SYNC, null, null);
+            assertEquals("Automatic checkpoints should be off during the sync.",
+                    0, provider.getWalAutoCheckpointPages());
+
+            contentResolver.call(MoviesContract.BASE_CONTENT_URI,
+                    MoviesContract.METHOD_END_SYNC, null, null);
+            assertEquals("Automatic checkpoints should be restored after the sync.",
+                    walAutoCheckpointPages, provider.getWalAutoCheckpointPages());
+        } finally {
+            client.release();
+        }
+    }
+
+    private static String queryFavouriteTitles(ContentResolver contentResolver) {
+        Cursor cursor = contentResolver.query(FavouritesEntry.CONTENT_URI,
+                new String[]{FavouritesEntry.MOVIE_TITLE},
+                null,
+                null,
+                null);
+        assertNotNull(cursor);
+        StringBuilder titles = new StringBuilder();
+        while (cursor.moveToNext()) {
+            titles.append(titles.length() == 0 ? "" : ",").append(cursor.getString(0));
+        }
+        cursor.close();
+        return titles.toString();
+    }
+
+    private static ContentValues createMovieWithId(int movieId) {
+        ContentValues movie = TestUtilities.createMoviesContentValues();
+        movie.put(MoviesEntry.MOVIE_ID, movieId);
+        movie.put(MoviesEntry.MOVIE_TITLE, "Test " + movieId);
+        return movie;
+    }
+
+    private static long queryRowId(ContentResolver contentResolver, String movieId) {
+        Cursor cursor = contentResolver.query(MoviesEntry.buildMovieUriWithId(movieId),
+                new String[]{MoviesEntry._ID},
+                null,
+                null,
+                null);
+        assertTrue("The movie should be stored.", cursor.moveToFirst());
+        long rowId = cursor.getLong(0);
+        cursor.close();
+        return rowId;
+    }
+
     /**
      * This test deletes all records from the movies table using the ContentProvider.
      */
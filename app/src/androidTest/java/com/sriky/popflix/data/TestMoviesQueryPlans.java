@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.InstrumentationRegistry;
+
+import com.sriky.popflix.data.MoviesContract.FavouritesEntry;
+import com.sriky.popflix.data.MoviesContract.MovieCategoryEntry;
+import com.sriky.popflix.data.MoviesContract.MoviesEntry;
+import com.sriky.popflix.utilities.MovieDataUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.fail;
+
+/**
+ * Class to test the hot queries of the {@link MoviesProvider} are served from indexes, using
+ * EXPLAIN QUERY PLAN. Following are the tests:
+ * 1). The category grid, a page of it and the sync's read of a category search indexes, with
+ * no sorting.
+ * 2). A movie is looked up by its movie ID through an index.
+ * 3). The favourites grid reads a covering index.
+ * 4). Deleting a movie that dropped out of its categories searches indexes.
+ */
+
+public class TestMoviesQueryPlans {
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private MoviesDbHelper mMoviesDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void before() {
+        mMoviesDbHelper = new MoviesDbHelper(mContext);
+        mDatabase = mMoviesDbHelper.getReadableDatabase();
+    }
+
+    @After
+    public void after() {
+        mMoviesDbHelper.close();
+    }
+
+    /**
+     * Method to test the grid query of a category, in rank order.
+     */
+    @Test
+    public void testCategoryGridQueryPlan() {
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                MoviesProvider.CATEGORY_MOVIES_TABLES,
+                MovieDataUtils.MOVIE_DATA_PROJECTION,
+                MoviesProvider.CATEGORY_SELECTION,
+                null,
+                null,
+                MovieCategoryEntry.RANK,
+                null);
+        List<String> plan = explain(sql, "popular");
+        assertNoScan(plan);
+        assertUses(plan, MovieCategoryEntry.TABLE_NAME + "_rank");
+    }
+
+    /**
+     * Method to test a page of a category, which starts after the rank of the previous page's
+     * last movie, is a range of the index rather than a scan.
+     */
+    @Test
+    public void testCategoryPageQueryPlan() {
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                MoviesProvider.CATEGORY_MOVIES_TABLES,
+                new String[]{MoviesEntry.MOVIE_ID,
+                        MoviesEntry.MOVIE_POSTER_PATH,
+                        MovieCategoryEntry.RANK},
+                MoviesProvider.CATEGORY_SELECTION + " AND " + MovieCategoryEntry.RANK + " > ?",
+                null,
+                null,
+                MovieCategoryEntry.RANK,
+                "60");
+        List<String> plan = explain(sql, "popular", "600");
+        assertNoScan(plan);
+        assertUses(plan, MovieCategoryEntry.TABLE_NAME + "_rank");
+    }
+
+    /**
+     * Method to test the sync's read of all the columns of a category.
+     */
+    @Test
+    public void testCategorySyncQueryPlan() {
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                MoviesProvider.CATEGORY_MOVIES_TABLES,
+                null,
+                MoviesProvider.CATEGORY_SELECTION,
+                null,
+                null,
+                null,
+                null);
+        List<String> plan = explain(sql, "popular");
+        assertNoScan(plan);
+        assertUses(plan, "COVERING INDEX " + MovieCategoryEntry.TABLE_NAME + "_rank");
+    }
+
+    /**
+     * Method to test the lookup of a movie by its movie ID, i.e. the details screen and the
+     * merge of a synced movie.
+     */
+    @Test
+    public void testMovieWithIdQueryPlan() {
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                MoviesEntry.TABLE_NAME,
+                null,
+                MoviesEntry.MOVIE_ID + " =? ",
+                null,
+                null,
+                null,
+                null);
+        assertNoScan(explain(sql, "42"));
+    }
+
+    /**
+     * Method to test the favourites grid, which lists every favourite, reads the index only.
+     */
+    @Test
+    public void testFavouritesGridQueryPlan() {
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                FavouritesEntry.TABLE_NAME,
+                MovieDataUtils.MOVIE_DATA_PROJECTION,
+                null,
+                null,
+                null,
+                null,
+                null);
+        List<String> plan = explain(sql);
+        assertUses(plan, "COVERING INDEX " + FavouritesEntry.TABLE_NAME + "_grid");
+        for (String detail : plan) {
+            assertFalse("Unexpected sorting: " + detail, detail.contains("TEMP B-TREE"));
+        }
+    }
+
+    /**
+     * Method to test the delete of a movie that dropped out of a category.
+     */
+    @Test
+    public void testDeleteMovieIfUnusedQueryPlan() {
+        assertNoScan(explain(MoviesProvider.SQL_DELETE_MOVIE_IF_UNUSED, "42"));
+    }
+
+    /**
+     * @return The detail of every step of the statement's query plan.
+     */
+    private List<String> explain(String sql, String... selectionArgs) {
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        List<String> plan = new ArrayList<>();
+        try {
+            /* the detail is the last of the four columns on every SQLite version */
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertFalse("No query plan for " + sql, plan.isEmpty());
+        return plan;
+    }
+
+    private static void assertNoScan(List<String> plan) {
+        for (String detail : plan) {
+            assertFalse("Unexpected scan: " + plan, detail.startsWith("SCAN"));
+            assertFalse("Unexpected sorting: " + plan, detail.contains("TEMP B-TREE"));
+        }
+    }
+
+    private static void assertUses(List<String> plan, String index) {
+        for (String detail : plan) {
+            if (detail.contains(index)) return;
+        }
+        fail("The plan doesn't use " + index + ": " + plan);
+    }
+}
@@ -24,7 +24,10 @@ import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
 
+import com.sriky.popflix.data.MoviesContract.FavouritesEntry;
+import com.sriky.popflix.data.MoviesContract.MovieCategoryEntry;
 import com.sriky.popflix.data.MoviesContract.MoviesEntry;
+import com.sriky.popflix.utilities.MovieDataUtils;
 
 import java.util.Map;
 import java.util.Random;
@@ -57,7 +60,7 @@ public class TestUtilities {
         cv.put(MoviesEntry.MOVIE_TITLE, "Test " + movieId);
         cv.put(MoviesEntry.MOVIE_OVERVIEW, "This movie is about testing the movies database!");
         cv.put(MoviesEntry.MOVIE_POSTER_PATH, "www.google.com");
-        cv.put(MoviesEntry.MOVIE_RELEASE_DATE, "2017-09-18");
+        MovieDataUtils.putReleaseDate(cv, "2017-09-18");
         cv.put(MoviesEntry.MOVIE_VOTE_AVERAGE, "9.5");
         cv.put(MoviesEntry.MOVIE_VOTE_COUNT, "656");
         return cv;
@@ -119,7 +122,7 @@ public class TestUtilities {
     }
 
     /**
-     * Helper method to delete all entries in the movies table.
+     * Helper method to delete all entries in the movies, movie_category and favourites tables.
      */
     public static void deleteAllItemsInMoviesTable(Context context) {
         MoviesDbHelper moviesDBHelper = new MoviesDbHelper(context);
@@ -128,6 +131,12 @@ public class TestUtilities {
         db.delete(MoviesEntry.TABLE_NAME,
                 null,
                 null);
+        db.delete(MovieCategoryEntry.TABLE_NAME,
+                null,
+                null);
+        db.delete(FavouritesEntry.TABLE_NAME,
+                null,
+                null);
 
     }
 }
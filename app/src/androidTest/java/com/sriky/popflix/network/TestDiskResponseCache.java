@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Class to test the {@link DiskResponseCache}. Following are the tests:
+ * 1). Stored bodies are returned while fresh, and only on request once expired.
+ * 2). Least recently used entries are evicted to stay within the byte budget.
+ * 3). Entries and their access order survive a new cache instance on the same directory.
+ */
+
+public class TestDiskResponseCache {
+    private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /* every entry is 8 bytes of header and the body */
+    private static final int BODY_SIZE = 92;
+    private static final long MAX_BYTES = 3 * (BODY_SIZE + 8);
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private File mDirectory;
+
+    @Before
+    public void before() {
+        mDirectory = new File(mContext.getCacheDir(), "test-http-responses");
+        new DiskResponseCache(mDirectory, MAX_BYTES).clear();
+    }
+
+    /**
+     * Method to test the time to live supplied on lookup.
+     */
+    @Test
+    public void testTimeToLive() {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, MAX_BYTES);
+        byte[] body = createBody(1);
+        cache.put("url1", body);
+
+        assertTrue("Fresh entry didn't match the stored body.",
+                Arrays.equals(body, cache.get("url1", TTL_MILLIS)));
+        assertNull("Expired entry was returned.", cache.get("url1", 0));
+        /* expired entries are kept as a fallback for when the network fails */
+        assertTrue("Expired entry wasn't kept.",
+                Arrays.equals(body, cache.get("url1", Long.MAX_VALUE)));
+    }
+
+    /**
+     * Method to test the least recently used entry is evicted first.
+     */
+    @Test
+    public void testLruEviction() {
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, MAX_BYTES);
+        cache.put("url1", createBody(1));
+        cache.put("url2", createBody(2));
+        cache.put("url3", createBody(3));
+        /* url1 is now the most recently used */
+        assertNotNull(cache.get("url1", TTL_MILLIS));
+
+        cache.put("url4", createBody(4));
+        assertNull("Least recently used entry wasn't evicted.", cache.get("url2", TTL_MILLIS));
+        assertNotNull(cache.get("url1", TTL_MILLIS));
+        assertNotNull(cache.get("url3", TTL_MILLIS));
+        assertNotNull(cache.get("url4", TTL_MILLIS));
+        assertEquals(MAX_BYTES, cache.size());
+    }
+
+    /**
+     * Method to test entries are picked up by a new instance, e.g. after the process restarts.
+     */
+    @Test
+    public void testPersistence() {
+        byte[] body = createBody(1);
+        new DiskResponseCache(mDirectory, MAX_BYTES).put("url1", body);
+
+        DiskResponseCache cache = new DiskResponseCache(mDirectory, MAX_BYTES);
+        assertEquals(BODY_SIZE + 8, cache.size());
+        assertTrue("Entry didn't survive a new cache instance.",
+                Arrays.equals(body, cache.get("url1", TTL_MILLIS)));
+    }
+
+    private static byte[] createBody(int seed) {
+        byte[] body = new byte[BODY_SIZE];
+        Arrays.fill(body, (byte) seed);
+        return body;
+    }
+}
@@ -15,14 +15,21 @@
 
 package com.sriky.popflix;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.databinding.DataBindingUtil;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.support.design.widget.TabLayout;
+import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.NavUtils;
 import android.support.v4.content.Loader;
@@ -40,15 +47,20 @@ import android.widget.Toast;
 import com.squareup.picasso.Picasso;
 import com.sriky.popflix.adaptors.DetailsFragmentPagerAdaptor;
 import com.sriky.popflix.adaptors.MovieTrailerAdaptor;
+import com.sriky.popflix.data.MoviesContract;
+import com.sriky.popflix.data.MoviesContract.FavouritesEntry;
 import com.sriky.popflix.data.MoviesContract.MoviesEntry;
 import com.sriky.popflix.databinding.ActivityMovieDetailBinding;
 import com.sriky.popflix.loaders.FetchMovieDataTaskLoader;
+import com.sriky.popflix.parcelables.MovieReview;
 import com.sriky.popflix.parcelables.MovieTrailer;
+import com.sriky.popflix.utilities.ImageSizeUtils;
 import com.sriky.popflix.utilities.MovieDataUtils;
 import com.sriky.popflix.utilities.NetworkUtils;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class MovieDetailActivity extends AppCompatActivity
         implements LoaderManager.LoaderCallbacks<String>,
@@ -59,14 +71,17 @@ public class MovieDetailActivity extends AppCompatActivity
 
     private static final String TAG = MovieDetailActivity.class.getSimpleName();
 
-    /* the projection array used to query data from the movies tables */
+    /* the projection array used to query data from the movies or the favourites table, it
+     * holds every column of a favourite's snapshot but the movie ID */
     private static final String[] MOVIE_DETAILS_PROJECTION = {
             MoviesEntry.MOVIE_TITLE,
             MoviesEntry.MOVIE_RELEASE_DATE,
             MoviesEntry.MOVIE_VOTE_AVERAGE,
             MoviesEntry.MOVIE_POSTER_PATH,
             MoviesEntry.MOVIE_OVERVIEW,
-            MoviesEntry.USER_FAVOURITE
+            MoviesEntry.MOVIE_VOTE_COUNT,
+            MoviesEntry.MOVIE_RELEASE_DAY,
+            MoviesEntry.MOVIE_RELEASE_YEAR
     };
 
     /* indexes to access the data from the cursor for the projection defined above */
@@ -75,10 +90,25 @@ public class MovieDetailActivity extends AppCompatActivity
     public static final int INDEX_MOVIE_VOTE_AVERAGE = 2;
     public static final int INDEX_MOVIE_POSTER_PATH = 3;
     public static final int INDEX_MOVIE_OVERVIEW = 4;
-    public static final int INDEX_MOVIE_USER_FAVORITE = 5;
+    public static final int INDEX_MOVIE_VOTE_COUNT = 5;
+    public static final int INDEX_MOVIE_RELEASE_DAY = 6;
+    public static final int INDEX_MOVIE_RELEASE_YEAR = 7;
 
     private ArrayList<MovieTrailer> mMovieTrailersList;
 
+    private ArrayList<MovieReview> mMovieReviewsList;
+
+    /* whether the details request completed, successfully or not */
+    private boolean mMovieReviewsLoaded;
+
+    private MovieReviewsFragment mMovieReviewsFragment;
+
+    /* the movie record is refreshed once per activity instance */
+    private boolean mMovieRecordRefreshed;
+
+    /* the API owned values of the movie fetched with its details, null until they are */
+    private ContentValues mMovieValues;
+
     private ActivityMovieDetailBinding mMovieDetailBinding;
 
     private Cursor mCursor;
@@ -131,7 +161,8 @@ public class MovieDetailActivity extends AppCompatActivity
         if (intent != null && intent.hasExtra(MovieDataUtils.MOVIE_ID_INTENT_EXTRA_KEY)) {
             /* get the movie ID from the intent passed by PopularMoviesActivity */
             mMovieId = intent.getStringExtra(MovieDataUtils.MOVIE_ID_INTENT_EXTRA_KEY);
-            URL url = NetworkUtils.buildVideosURL(mMovieId, MovieDataUtils.TMDB_API_KEY);
+            /* details, trailers and reviews are fetched with a single request */
+            URL url = NetworkUtils.buildMovieDetailsURL(mMovieId, MovieDataUtils.TMDB_API_KEY);
             Bundle loaderBundle = new Bundle();
             loaderBundle.putString(MovieDataUtils.FETCH_MOVIE_DATA_URL_KEY, url.toString());
 
@@ -143,21 +174,41 @@ public class MovieDetailActivity extends AppCompatActivity
 
             /* query the local database for the movie records using the movie id. */
             new AsyncTask<Void, Void, Cursor>() {
+                private boolean mIsFavorite;
 
                 @Override
                 protected Cursor doInBackground(Void... voids) {
-                    return getContentResolver().query(
+                    ContentResolver contentResolver = getContentResolver();
+                    Cursor favorite = contentResolver.query(
+                            FavouritesEntry.buildFavouriteUriWithId(mMovieId),
+                            MOVIE_DETAILS_PROJECTION,
+                            null,
+                            null,
+                            null);
+                    Cursor movie = contentResolver.query(
                             MoviesEntry.buildMovieUriWithId(mMovieId),
                             MOVIE_DETAILS_PROJECTION,
                             null,
                             null,
                             null);
+                    mIsFavorite = favorite != null && favorite.getCount() > 0;
+
+                    /* the sync may have dropped a favourite from the movies table, its snapshot
+                     * stands in for it then */
+                    if (mIsFavorite && (movie == null || movie.getCount() == 0)) {
+                        if (movie != null) movie.close();
+                        return favorite;
+                    }
+                    if (favorite != null) favorite.close();
+                    return movie;
                 }
 
                 @Override
                 protected void onPostExecute(Cursor cursor) {
                     mCursor = cursor;
+                    mFavorite = mIsFavorite;
                     bindViews(cursor);
+                    supportInvalidateOptionsMenu();
                 }
             }.execute();
         }
@@ -181,7 +232,6 @@ public class MovieDetailActivity extends AppCompatActivity
     public boolean onPrepareOptionsMenu(Menu menu) {
         /* set the icon to indicate whether the movie has been favorited by the user or not */
         if (mCursor != null) {
-            mFavorite = mCursor.getInt(INDEX_MOVIE_USER_FAVORITE) > 0;
             if (mFavorite) {
                 setIcon(menu.findItem(R.id.action_favorite), R.drawable.favorite_selected);
             }
@@ -206,18 +256,29 @@ public class MovieDetailActivity extends AppCompatActivity
     }
 
     /**
-     * Update the movies table item record to set the boolean.
+     * Adds the movie to the favourites table, with a snapshot of its details, or removes it.
      */
     private void updateRecord() {
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(MoviesEntry.USER_FAVOURITE, mFavorite);
-        int id = getContentResolver().update(
-                MoviesEntry.buildMovieUriWithId(mMovieId),
-                contentValues,
-                null,
-                null);
-
-        Log.d(TAG, "updateRecord() id =" + id);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        if (mFavorite) {
+            /* the projection is the snapshot, less the movie ID. The details fetched since the
+             * cursor was queried are fresher. */
+            ContentValues contentValues = new ContentValues();
+            DatabaseUtils.cursorRowToContentValues(mCursor, contentValues);
+            if (mMovieValues != null) {
+                contentValues.putAll(mMovieValues);
+            }
+            contentValues.put(FavouritesEntry.MOVIE_ID, mMovieId);
+            operations.add(ContentProviderOperation.newInsert(FavouritesEntry.CONTENT_URI)
+                    .withValues(contentValues)
+                    .build());
+        } else {
+            operations.add(ContentProviderOperation.newDelete(
+                    FavouritesEntry.buildFavouriteUriWithId(mMovieId))
+                    .build());
+        }
+        /* off the main thread, and in the order of the toggles */
+        applyBatch(operations);
         int formatId =
                 (mFavorite) ? R.string.movie_added_to_favorites
                         : R.string.movie_removed_from_favorites;
@@ -260,7 +321,8 @@ public class MovieDetailActivity extends AppCompatActivity
         /* set thumbnail */
         String relativePath = cursor.getString(INDEX_MOVIE_POSTER_PATH);
         Uri uri = NetworkUtils.getURLForImageWithRelativePathAndSize(relativePath,
-                MovieDataUtils.getQueryThumbnailWidthPath());
+                ImageSizeUtils.getPosterSizePath(this,
+                        mMovieDetailBinding.thumbnailWithDetails.thumbnailView));
         Picasso.with(this)
                 .load(uri)
                 .placeholder(R.drawable.loading)
@@ -269,12 +331,14 @@ public class MovieDetailActivity extends AppCompatActivity
         mMovieDetailBinding.thumbnailWithDetails.thumbnailView.setContentDescription(
                 getString(R.string.a11y_movie_thumbnail, title));
 
-        /* set release date */
-        String formattedYear = cursor.getString(INDEX_MOVIE_RELEASE_DATE);
-        formattedYear = formattedYear.substring(0, formattedYear.indexOf("-"));
+        /* set release year, parsed from the release date when the movie was stored. It is
+         * null if the API has no release date for the movie. */
+        String formattedYear = cursor.isNull(INDEX_MOVIE_RELEASE_YEAR) ? ""
+                : Integer.toString(cursor.getInt(INDEX_MOVIE_RELEASE_YEAR));
         mMovieDetailBinding.thumbnailWithDetails.tvDate.setText(formattedYear);
         mMovieDetailBinding.thumbnailWithDetails.tvDate.setContentDescription(
-                getString(R.string.a11y_release_date, formattedYear));
+                formattedYear.isEmpty() ? null
+                        : getString(R.string.a11y_release_date, formattedYear));
 
         /* set ratings */
         double ratings = cursor.getDouble(INDEX_MOVIE_VOTE_AVERAGE);
@@ -320,18 +384,93 @@ public class MovieDetailActivity extends AppCompatActivity
 
     @Override
     public void onLoadFinished(Loader<String> loader, String data) {
+        MovieDataUtils.MovieDetails movieDetails = null;
         if (data != null) {
             Log.d(TAG, "onLoadFinished: queryResult.length() = " + data.length());
-            mMovieTrailersList = MovieDataUtils.getMovieTrailers(data);
-            if(mMovieTrailersList.size() == 0) {
+            movieDetails = MovieDataUtils.getMovieDetails(data);
+        }
+
+        if (movieDetails == null) {
+            mMovieReviewsList = null;
+            onFetchFailed();
+        } else {
+            mMovieReviewsList = movieDetails.getMovieReviews();
+            mMovieTrailersList = movieDetails.getMovieTrailers();
+            if (mMovieTrailersList.size() == 0) {
                 mMovieDetailBinding.trailers.tvErrorMsg.setText(getString(R.string.no_trailers));
                 onFetchFailed();
             } else {
                 onDownloadSuccess();
             }
-        } else {
-            onFetchFailed();
+            /* a cached body may be a week old, older than what the sync stored since */
+            if (!((FetchMovieDataTaskLoader) loader).isResultFromCache()) {
+                refreshMovieRecord(movieDetails.getMovieValues());
+            }
         }
+        mMovieReviewsLoaded = true;
+
+        /* fan the reviews out to the reviews fragment, if it has been attached already */
+        if (mMovieReviewsFragment != null) {
+            mMovieReviewsFragment.setMovieReviews(mMovieReviewsList);
+        }
+    }
+
+    @Override
+    public void onAttachFragment(Fragment fragment) {
+        super.onAttachFragment(fragment);
+        if (fragment instanceof MovieReviewsFragment) {
+            mMovieReviewsFragment = (MovieReviewsFragment) fragment;
+            if (mMovieReviewsLoaded) {
+                mMovieReviewsFragment.setMovieReviews(mMovieReviewsList);
+            }
+        }
+    }
+
+    /**
+     * Updates the API owned columns of the movie record with the freshly fetched details, and
+     * the snapshot if the movie is a favourite.
+     *
+     * @param movieValues The values for the movie record.
+     */
+    private void refreshMovieRecord(ContentValues movieValues) {
+        if (mMovieRecordRefreshed) return;
+        mMovieRecordRefreshed = true;
+        mMovieValues = movieValues;
+
+        /* the movie and its snapshot are updated together */
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(
+                MoviesEntry.buildMovieUriWithId(mMovieId))
+                .withValues(movieValues)
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(
+                FavouritesEntry.buildFavouriteUriWithId(mMovieId))
+                .withValues(movieValues)
+                .build());
+        applyBatch(operations);
+    }
+
+    /**
+     * Applies the operations to the movies database in the background, in a single transaction.
+     * The batches are applied one after the other, in the order they were submitted.
+     *
+     * @param operations The operations to apply.
+     */
+    private void applyBatch(final ArrayList<ContentProviderOperation> operations) {
+        final ContentResolver contentResolver = getContentResolver();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... voids) {
+                try {
+                    ContentProviderResult[] results = contentResolver.applyBatch(
+                            MoviesContract.CONTENT_AUTHORITY, operations);
+                    Log.d(TAG, "applyBatch() results : " + Arrays.toString(results));
+                } catch (RemoteException | OperationApplicationException e) {
+                    e.printStackTrace();
+                }
+                return null;
+            }
+        }.execute();
     }
 
     @Override
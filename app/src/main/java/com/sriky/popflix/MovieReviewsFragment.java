@@ -19,8 +19,6 @@ package com.sriky.popflix;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.Loader;
 import android.support.v7.widget.LinearLayoutManager;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -29,20 +27,17 @@ import android.view.ViewGroup;
 
 import com.sriky.popflix.adaptors.MovieReviewsAdaptor;
 import com.sriky.popflix.databinding.MovieReviewsBinding;
-import com.sriky.popflix.loaders.FetchMovieDataTaskLoader;
 import com.sriky.popflix.parcelables.MovieReview;
-import com.sriky.popflix.utilities.MovieDataUtils;
-import com.sriky.popflix.utilities.NetworkUtils;
 
-import java.net.URL;
 import java.util.ArrayList;
 
 /**
  * Fragment that is part of {@link android.support.v4.view.ViewPager} responsible for displaying
- * the user reviews for movies.
+ * the user reviews for movies. The reviews are fetched by {@link MovieDetailActivity} as part of
+ * the movie details and delivered through {@link #setMovieReviews(ArrayList)}.
  */
 
-public class MovieReviewsFragment extends Fragment implements LoaderManager.LoaderCallbacks<String> {
+public class MovieReviewsFragment extends Fragment {
     private static final String TAG = MovieReviewsFragment.class.getSimpleName();
 
     public static final String ARG_MOVIE_ID_KEY = "movie_id";
@@ -52,6 +47,9 @@ public class MovieReviewsFragment extends Fragment implements LoaderManager.Load
 
     private MovieReviewsBinding mMovieReviewsBinding;
 
+    /* whether the reviews have been delivered, successfully or not */
+    private boolean mReviewsDelivered;
+
     @Nullable
     @Override
     public View onCreateView(LayoutInflater inflater, @Nullable ViewGroup container,
@@ -68,54 +66,47 @@ public class MovieReviewsFragment extends Fragment implements LoaderManager.Load
         mMovieReviewsAdaptor = new MovieReviewsAdaptor(getContext());
         mMovieReviewsBinding.reviewsRecyclerView.setAdapter(mMovieReviewsAdaptor);
 
-        /* get the movie ID from the bundle */
-        Bundle args = getArguments();
-        String movieId;
-        if (args.containsKey(ARG_MOVIE_ID_KEY)) {
-            movieId = args.getString(ARG_MOVIE_ID_KEY);
-        } else {
-            throw new RuntimeException("MovieId not set!");
+        /* the reviews may have been delivered before the view was created. */
+        if (mReviewsDelivered) {
+            bindReviews();
         }
 
-        /* build the url for query reviews for a specific movie ID */
-        URL url = NetworkUtils.buildReviewsURL(movieId, MovieDataUtils.TMDB_API_KEY);
-        Bundle loaderBundle = new Bundle();
-        loaderBundle.putString(MovieDataUtils.FETCH_MOVIE_DATA_URL_KEY, url.toString());
-
-        /* trigger the FetchMovieDataTaskLoader to download reviews.
-         * The following call will initialize a new loader if one doesn't exist.
-         * If an old loader exist and has loaded the data, then onLoadFinished() will be triggered. */
-        getLoaderManager().initLoader(MovieDataUtils.REVIEWS_DATA_LOADER_ID,
-                loaderBundle, MovieReviewsFragment.this);
-
         return mMovieReviewsBinding.getRoot();
     }
 
     @Override
-    public Loader<String> onCreateLoader(int id, Bundle args) {
-        return new FetchMovieDataTaskLoader(getContext(), args);
+    public void onDestroyView() {
+        mMovieReviewsBinding = null;
+        super.onDestroyView();
     }
 
-    @Override
-    public void onLoadFinished(Loader<String> loader, String data) {
-        if (data != null) {
-            Log.d(TAG, "onLoadFinished() data : " + data);
-            mMovieReviewList = MovieDataUtils.getMovieReviews(data);
-            if (mMovieReviewList.size() == 0) {
-                mMovieReviewsBinding.tvErrorMsg.setText(getString(R.string.no_reviews));
-                hideProgressBarAndShowErrorMessage();
-            } else {
-                mMovieReviewsBinding.pbPopularMovies.setVisibility(View.INVISIBLE);
-                mMovieReviewsAdaptor.updateDataSource(mMovieReviewList);
-            }
-        } else {
-            hideProgressBarAndShowErrorMessage();
+    /**
+     * Delivers the reviews for the movie.
+     *
+     * @param movieReviews The reviews, or null if they couldn't be fetched.
+     */
+    public void setMovieReviews(@Nullable ArrayList<MovieReview> movieReviews) {
+        mMovieReviewList = movieReviews;
+        mReviewsDelivered = true;
+        if (mMovieReviewsBinding != null) {
+            bindReviews();
         }
     }
 
-    @Override
-    public void onLoaderReset(Loader<String> loader) {
-
+    /**
+     * Displays the delivered reviews, or the appropriate error message.
+     */
+    private void bindReviews() {
+        if (mMovieReviewList == null) {
+            hideProgressBarAndShowErrorMessage();
+        } else if (mMovieReviewList.size() == 0) {
+            mMovieReviewsBinding.tvErrorMsg.setText(getString(R.string.no_reviews));
+            hideProgressBarAndShowErrorMessage();
+        } else {
+            Log.d(TAG, "bindReviews() reviews : " + mMovieReviewList.size());
+            mMovieReviewsBinding.pbPopularMovies.setVisibility(View.INVISIBLE);
+            mMovieReviewsAdaptor.updateDataSource(mMovieReviewList);
+        }
     }
 
     /**
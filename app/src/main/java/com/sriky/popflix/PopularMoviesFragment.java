@@ -36,6 +36,7 @@ import com.sriky.popflix.databinding.PopularMoviesBinding;
 import com.sriky.popflix.loaders.FetchMovieDataTaskLoader;
 import com.sriky.popflix.sync.MovieDataSyncUtils;
 import com.sriky.popflix.utilities.MovieDataUtils;
+import com.sriky.popflix.utilities.NetworkUtils;
 
 
 /**
@@ -134,6 +135,15 @@ public class PopularMoviesFragment extends Fragment
                 args = new Bundle();
             }
             args.putString(QUERY_PATH_BUNDLE_KEY, queryPath);
+
+            /* the movies of the category, in the API's rank order */
+            mPopularMoviesAdaptor.setSource(
+                    MoviesContract.MoviesEntry.buildCategoryUri(queryPath),
+                    MoviesContract.MovieCategoryEntry.RANK);
+        } else {
+            /* the favourites table has the same columns as the movies one */
+            mPopularMoviesAdaptor.setSource(MoviesContract.FavouritesEntry.CONTENT_URI,
+                    MoviesContract.FavouritesEntry.MOVIE_ID);
         }
 
         /* trigger the AsyncTaskLoader to download movie data.
@@ -162,32 +172,15 @@ public class PopularMoviesFragment extends Fragment
         Log.d(TAG + mFragmentPosition, "onCreateLoader: id = " + id);
 
         switch (id) {
-            case MovieDataUtils.BASIC_MOVIE_DATA_LOADER_ID: {
-
-                /* set the selection clause for the db query */
-                String selection = null;
-                if (args.containsKey(QUERY_PATH_BUNDLE_KEY)) {
-                    String queryPath = args.getString(QUERY_PATH_BUNDLE_KEY);
-                    selection = queryPath.equals(getString(R.string.sort_order_popular))
-                            ? MoviesContract.MoviesEntry.POPULAR + " =? "
-                            : MoviesContract.MoviesEntry.TOP_RATED + " =? ";
-                }
-
-                return new CursorLoader(getContext(),
-                        MoviesContract.MoviesEntry.CONTENT_URI,
-                        MovieDataUtils.MOVIE_DATA_PROJECTION,
-                        selection,
-                        new String[]{"1"},
-                        null);
-            }
-
+            case MovieDataUtils.BASIC_MOVIE_DATA_LOADER_ID:
             case MovieDataUtils.FAVORITES_MOVIES_LOADER_ID: {
-                /* query for entries with MoviesContract.MoviesEntry.USER_FAVOURITE = true */
+                /* the first window of the adaptor's movies, the adaptor reads the others as the
+                 * grid scrolls. The loader reloads it whenever the movies change. */
                 return new CursorLoader(getContext(),
-                        MoviesContract.MoviesEntry.CONTENT_URI,
-                        MovieDataUtils.MOVIE_DATA_PROJECTION,
-                        MoviesContract.MoviesEntry.USER_FAVOURITE + " =? ",
-                        new String[]{"1"},
+                        mPopularMoviesAdaptor.getFirstWindowUri(),
+                        mPopularMoviesAdaptor.getProjection(),
+                        null,
+                        null,
                         null);
             }
 
@@ -202,7 +195,7 @@ public class PopularMoviesFragment extends Fragment
      * data in the database gets updated.
      *
      * @param loader The cursor loader.
-     * @param data   The cursor to the movies tables.
+     * @param data   The cursor to the first window of the movies.
      */
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
@@ -221,9 +214,16 @@ public class PopularMoviesFragment extends Fragment
              * that added to favorites yet!*/
             mPopularMoviesBinding.tvErrorMsg.setText(getString(R.string.add_movies_to_favorite));
             hideProgressBarAndShowErrorMessage();
+        } else if (!NetworkUtils.isOnline(getContext())) {
+            /* nothing cached and the sync fails fast while offline, say so right away instead
+             * of waiting for the timeout. */
+            cancelDataFetchTimer();
+            mPopularMoviesBinding.tvErrorMsg.setText(getString(R.string.offline_error));
+            hideProgressBarAndShowErrorMessage();
         } else {
             /* if the timer was running then cancel it. */
             cancelDataFetchTimer();
+            mPopularMoviesBinding.tvErrorMsg.setText(getString(R.string.data_download_error));
             /* will there is no data set up a countdown to display an error message in case
              * the data doesn't load in the specified time.
              */
@@ -15,9 +15,12 @@
 
 package com.sriky.popflix.adaptors;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -27,38 +30,136 @@ import android.widget.ImageView;
 
 import com.squareup.picasso.Picasso;
 import com.sriky.popflix.R;
+import com.sriky.popflix.data.MoviesContract;
+import com.sriky.popflix.utilities.ImageSizeUtils;
 import com.sriky.popflix.utilities.MovieDataUtils;
 import com.sriky.popflix.utilities.NetworkUtils;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import butterknife.BindView;
 import butterknife.ButterKnife;
 
 /**
- * Adaptor for the PopularMoviesActivity's grid RecyclerView.
+ * Adaptor for the PopularMoviesActivity's grid RecyclerView. The movies are read in windows,
+ * pages of the provider(see {@link MoviesContract#buildPageUri(Uri, long, int)}), loaded in the
+ * background as the grid scrolls to them. At most {@link #MAX_WINDOWS} windows are held, copied
+ * out of their cursors, so a long list never sits in a single Cursor.
  */
 
 public class PopularMoviesAdaptor extends RecyclerView.Adapter<PopularMoviesAdaptor.ImageViewHolder> {
 
     private static final String TAG = PopularMoviesAdaptor.class.getSimpleName();
 
+    /* rows of a window, a few screens of posters */
+    public static final int WINDOW_SIZE = 60;
+
+    /* windows held at once, the least recently bound one is dropped first */
+    private static final int MAX_WINDOWS = 5;
+
+    /* index of the key in the projection of a window */
+    private static final int INDEX_KEY = 2;
+
     private final Context mContext;
-    /* cursor to the movies table */
-    private Cursor mCursor;
+    private final ContentResolver mContentResolver;
+    /* width of a grid column, for posters bound before their item has been laid out */
+    private int mColumnWidth;
+
+    /* the category or favourites Uri and the projection of its windows */
+    private Uri mUri;
+    private String[] mProjection;
+
+    /* window index -> window, in the order they were last bound */
+    private final LinkedHashMap<Integer, Window> mWindows =
+            new LinkedHashMap<Integer, Window>(MAX_WINDOWS + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Window> eldest) {
+                    return size() > MAX_WINDOWS;
+                }
+            };
+
+    /* the key of the last row of the windows read so far, the next window starts after it */
+    private final List<Long> mWindowEndKeys = new ArrayList<>();
+
+    /* windows being loaded */
+    private final Set<Integer> mLoadingWindows = new HashSet<>();
+
+    /* the number of movies known so far, and whether it's all of them */
+    private int mItemCount;
+    private boolean mEndReached;
+
+    /* bumped whenever the data changes, loads started before that are dropped */
+    private int mGeneration;
 
     private MoviePosterOnClickEventListener PopularMoviesAdaptorOnClickListener;
 
     public PopularMoviesAdaptor(Context context, MoviePosterOnClickEventListener moviePosterOnClickEventListener) {
         mContext = context;
+        mContentResolver = context.getContentResolver();
         PopularMoviesAdaptorOnClickListener = moviePosterOnClickEventListener;
     }
 
     /**
-     * When there is new data, swap the cursor to the update the UI.
+     * Sets the movies to page through.
      *
-     * @param cursor The new cursor.
+     * @param uri       A category Uri or the favourites Uri.
+     * @param keyColumn The column the Uri's pages are sorted by.
+     */
+    public void setSource(Uri uri, String keyColumn) {
+        mUri = uri;
+        mProjection = new String[]{
+                MovieDataUtils.MOVIE_DATA_PROJECTION[MovieDataUtils.INDEX_MOVIE_ID],
+                MovieDataUtils.MOVIE_DATA_PROJECTION[MovieDataUtils.INDEX_POSTER_PATH],
+                keyColumn
+        };
+    }
+
+    /**
+     * @return The Uri of the first window, for the loader that watches the movies.
+     */
+    public Uri getFirstWindowUri() {
+        return MoviesContract.buildPageUri(mUri, 0, WINDOW_SIZE);
+    }
+
+    /**
+     * @return The projection of a window.
+     */
+    public String[] getProjection() {
+        return mProjection;
+    }
+
+    /**
+     * When there is new data, swap the cursor of the first window to update the UI. The other
+     * windows are read again as they are bound.
+     *
+     * @param cursor The first window, queried with {@link #getFirstWindowUri()} and
+     *               {@link #getProjection()}, or null to clear the grid.
      */
     public void swapCursor(Cursor cursor) {
-        mCursor = cursor;
+        mGeneration++;
+        mWindows.clear();
+        mWindowEndKeys.clear();
+        mLoadingWindows.clear();
+
+        if (cursor == null) {
+            mItemCount = 0;
+            mEndReached = true;
+        } else {
+            Window window = new Window(cursor);
+            mWindows.put(0, window);
+            mEndReached = window.mSize < WINDOW_SIZE;
+            if (window.mSize > 0) {
+                mWindowEndKeys.add(window.mLastKey);
+            }
+            /* the movies scrolled to so far likely are still there, they keep their positions
+             * until their windows are read again */
+            mItemCount = mEndReached ? window.mSize : Math.max(mItemCount, window.mSize);
+        }
         notifyDataSetChanged();
     }
 
@@ -67,17 +168,43 @@ public class PopularMoviesAdaptor extends RecyclerView.Adapter<PopularMoviesAdap
         LayoutInflater layoutInflater = LayoutInflater.from(parent.getContext());
         View view = layoutInflater.inflate(R.layout.popularmovies_list_item, parent, false);
 
+        RecyclerView.LayoutManager layoutManager = ((RecyclerView) parent).getLayoutManager();
+        if (layoutManager instanceof GridLayoutManager) {
+            mColumnWidth = parent.getMeasuredWidth()
+                    / ((GridLayoutManager) layoutManager).getSpanCount();
+        }
         return new ImageViewHolder(view);
     }
 
     @Override
     public void onBindViewHolder(ImageViewHolder holder, int position) {
-        /* move the cursor to the correct position */
-        mCursor.moveToPosition(position);
-        /* get the information at the current cursor's position */
-        String relativePath = mCursor.getString(MovieDataUtils.INDEX_POSTER_PATH);
-        Uri uri = NetworkUtils.getURLForImageWithRelativePathAndSize(relativePath, MovieDataUtils.getQueryThumbnailWidthPath());
-        holder.mMovieThumbNailView.setTag(mCursor.getInt(MovieDataUtils.INDEX_MOVIE_ID));
+        int windowIndex = position / WINDOW_SIZE;
+        int row = position % WINDOW_SIZE;
+        Window window = mWindows.get(windowIndex);
+
+        /* read the next window ahead once half of this one has been scrolled to, past the
+         * movies known so far that finds out whether there are more */
+        boolean hasNextWindow = !mEndReached || (windowIndex + 1) * WINDOW_SIZE < mItemCount;
+        if (row >= WINDOW_SIZE / 2 && hasNextWindow && !mWindows.containsKey(windowIndex + 1)) {
+            loadWindow(windowIndex + 1);
+        }
+
+        if (window == null || row >= window.mSize) {
+            /* not read yet, show the placeholder until it is */
+            holder.mMovieThumbNailView.setTag(null);
+            Picasso.with(mContext).cancelRequest(holder.mMovieThumbNailView);
+            holder.mMovieThumbNailView.setImageResource(R.drawable.loading);
+            if (window == null) {
+                loadWindow(windowIndex);
+            }
+            return;
+        }
+
+        /* recycled items have their width, new ones fill a column */
+        int width = holder.itemView.getWidth() > 0 ? holder.itemView.getWidth() : mColumnWidth;
+        Uri uri = NetworkUtils.getURLForImageWithRelativePathAndSize(window.mPosterPaths[row],
+                ImageSizeUtils.getPosterSizePath(mContext, width));
+        holder.mMovieThumbNailView.setTag(window.mMovieIds[row]);
         Picasso.with(mContext)
                 .load(uri)
                 .placeholder(R.drawable.loading)
@@ -87,14 +214,154 @@ public class PopularMoviesAdaptor extends RecyclerView.Adapter<PopularMoviesAdap
 
     @Override
     public int getItemCount() {
-        if (mCursor == null) return 0;
-        return mCursor.getCount();
+        return mItemCount;
+    }
+
+    /**
+     * Reads the window in the background, along with the windows before it whose start isn't
+     * known yet. The grid is updated once they are read.
+     *
+     * @param windowIndex The index of the window.
+     */
+    private void loadWindow(final int windowIndex) {
+        if (mUri == null || mLoadingWindows.contains(windowIndex)) return;
+
+        /* a window starts after the last key of the previous one */
+        final int firstIndex = Math.min(windowIndex, mWindowEndKeys.size());
+        final long afterKey = firstIndex == 0 ? 0 : mWindowEndKeys.get(firstIndex - 1);
+        for (int i = firstIndex; i <= windowIndex; i++) {
+            mLoadingWindows.add(i);
+        }
+
+        final int generation = mGeneration;
+        final Uri uri = mUri;
+        final String[] projection = mProjection;
+        new AsyncTask<Void, Void, List<Window>>() {
+            @Override
+            protected List<Window> doInBackground(Void... voids) {
+                List<Window> windows = new ArrayList<>();
+                long key = afterKey;
+                for (int i = firstIndex; i <= windowIndex; i++) {
+                    Cursor cursor = mContentResolver.query(
+                            MoviesContract.buildPageUri(uri, key, WINDOW_SIZE),
+                            projection,
+                            null,
+                            null,
+                            null);
+                    if (cursor == null) break;
+                    Window window;
+                    try {
+                        window = new Window(cursor);
+                    } finally {
+                        cursor.close();
+                    }
+                    windows.add(window);
+                    if (window.mSize < WINDOW_SIZE) break;
+                    key = window.mLastKey;
+                }
+                return windows;
+            }
+
+            @Override
+            protected void onPostExecute(List<Window> windows) {
+                if (generation != mGeneration) return;
+                for (int i = firstIndex; i <= windowIndex; i++) {
+                    mLoadingWindows.remove(i);
+                }
+                onWindowsLoaded(firstIndex, windows);
+            }
+        }.execute();
+    }
+
+    /**
+     * Puts the windows read in the background and updates the number of movies.
+     *
+     * @param firstIndex The index of the first of the windows.
+     * @param windows    The windows, in order.
+     */
+    private void onWindowsLoaded(int firstIndex, List<Window> windows) {
+        int oldItemCount = mItemCount;
+        int itemCount = mItemCount;
+        for (int i = 0; i < windows.size(); i++) {
+            int windowIndex = firstIndex + i;
+            Window window = windows.get(i);
+            mWindows.put(windowIndex, window);
+            if (windowIndex < mWindowEndKeys.size()) {
+                mWindowEndKeys.set(windowIndex, window.mLastKey);
+            } else if (window.mSize > 0) {
+                mWindowEndKeys.add(window.mLastKey);
+            }
+
+            int windowEnd = windowIndex * WINDOW_SIZE + window.mSize;
+            if (window.mSize < WINDOW_SIZE) {
+                /* the last window, drop what the grid thought came after it */
+                mEndReached = true;
+                itemCount = windowEnd;
+                while (mWindowEndKeys.size() > windowIndex + 1
+                        || (window.mSize == 0 && mWindowEndKeys.size() > windowIndex)) {
+                    mWindowEndKeys.remove(mWindowEndKeys.size() - 1);
+                }
+                mWindows.keySet().retainAll(getWindowIndexes(windowIndex));
+            } else {
+                itemCount = Math.max(itemCount, windowEnd);
+            }
+        }
+        mItemCount = itemCount;
+        Log.d(TAG, "onWindowsLoaded: windows " + firstIndex + "-"
+                + (firstIndex + windows.size() - 1) + ", " + itemCount + " movies");
+
+        int changedStart = firstIndex * WINDOW_SIZE;
+        int changedEnd = Math.min(oldItemCount, itemCount);
+        if (changedEnd > changedStart) {
+            notifyItemRangeChanged(changedStart, changedEnd - changedStart);
+        }
+        if (itemCount > oldItemCount) {
+            notifyItemRangeInserted(oldItemCount, itemCount - oldItemCount);
+        } else if (itemCount < oldItemCount) {
+            notifyItemRangeRemoved(itemCount, oldItemCount - itemCount);
+        }
+    }
+
+    /**
+     * @return The indexes of the windows held up to the given one.
+     */
+    private Set<Integer> getWindowIndexes(int lastWindowIndex) {
+        Set<Integer> windowIndexes = new HashSet<>();
+        for (Integer windowIndex : mWindows.keySet()) {
+            if (windowIndex <= lastWindowIndex) windowIndexes.add(windowIndex);
+        }
+        return windowIndexes;
     }
 
     public interface MoviePosterOnClickEventListener {
         void onClickedMovieId(int movieId);
     }
 
+    /**
+     * The rows of a window, copied out of its cursor.
+     */
+    private static final class Window {
+        private final int mSize;
+        private final int[] mMovieIds;
+        private final String[] mPosterPaths;
+        /* the key of the last row */
+        private final long mLastKey;
+
+        Window(Cursor cursor) {
+            mSize = cursor.getCount();
+            mMovieIds = new int[mSize];
+            mPosterPaths = new String[mSize];
+            long lastKey = 0;
+            cursor.moveToPosition(-1);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                mMovieIds[i] = cursor.getInt(MovieDataUtils.INDEX_MOVIE_ID);
+                mPosterPaths[i] = cursor.getString(MovieDataUtils.INDEX_POSTER_PATH);
+                lastKey = cursor.getLong(INDEX_KEY);
+            }
+            mLastKey = lastKey;
+        }
+    }
+
     public class ImageViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
         //will display the image poster/thumbnail.
@@ -110,7 +377,9 @@ public class PopularMoviesAdaptor extends RecyclerView.Adapter<PopularMoviesAdap
         @Override
         public void onClick(View v) {
             Log.d(TAG, "onClick()");
-            /* retrieve the movie id we set as the tag in onBindViewHolder */
+            /* retrieve the movie id we set as the tag in onBindViewHolder, none while the
+             * window of the poster is being read */
+            if (v.getTag() == null) return;
             PopularMoviesAdaptorOnClickListener.onClickedMovieId(
                     (int) v.getTag());
         }
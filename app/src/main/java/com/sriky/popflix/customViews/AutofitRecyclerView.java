@@ -21,8 +21,6 @@ import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 
-import com.sriky.popflix.utilities.MovieDataUtils;
-
 /**
  * Custom RecyclerView to support auto-fix columns when items in the
  * {@link android.widget.GridLayout} have a custom width set.
@@ -54,8 +52,6 @@ public class AutofitRecyclerView extends RecyclerView {
             };
             TypedArray array = context.obtainStyledAttributes(attrs, attrsArray);
             columnWidth = array.getDimensionPixelSize(0, -1);
-            //pass the column width to set the query path for downloading thumbnails.
-            MovieDataUtils.setThumbnailQueryPath(columnWidth);
             array.recycle();
         }
 
@@ -38,6 +38,50 @@ public class MoviesContract {
      */
     public static final String PATH_MOVIES = "movies";
 
+    /*
+     * Support path for the movies of a category(i.e. a TMDB movies list), appended to the movies
+     * path.
+     */
+    public static final String PATH_CATEGORY = "category";
+
+    /*
+     * Support path for the user's favourite movies using the BASE_CONTENT_URI
+     */
+    public static final String PATH_FAVOURITES = "favourites";
+
+    /*
+     * Provider methods(see ContentResolver#call) bracketing the writes of a sync. The WAL is
+     * checkpointed once the sync ends rather than in the middle of it.
+     */
+    public static final String METHOD_BEGIN_SYNC = "begin_sync";
+    public static final String METHOD_END_SYNC = "end_sync";
+
+    /*
+     * Query parameters of a page of a category's movies or of the favourites, see
+     * buildPageUri().
+     */
+    public static final String QUERY_PARAMETER_AFTER = "after";
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Builds the Uri of a page of a category's movies or of the favourites. A page is sorted by
+     * the key of its rows, the {@link MovieCategoryEntry#RANK} of a category's movies and the
+     * {@link FavouritesEntry#MOVIE_ID} of the favourites, and starts after the given key. Unlike
+     * an offset, the key keeps the query of a page an index range however deep the page is.
+     * Pages can't be queried with a sort order.
+     *
+     * @param uri      A category Uri or the favourites Uri.
+     * @param afterKey The key of the last row of the previous page, 0 for the first page.
+     * @param limit    The maximum number of rows of the page.
+     * @return Uri of the page.
+     */
+    public static Uri buildPageUri(Uri uri, long afterKey, int limit) {
+        return uri.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_AFTER, Long.toString(afterKey))
+                .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+                .build();
+    }
+
     public static final class MoviesEntry implements BaseColumns {
         /*
          * The base content URI to query the movie database.
@@ -67,7 +111,7 @@ public class MoviesContract {
         public static final String MOVIE_OVERVIEW = "overview";
 
         /*
-         * Average ratings for the movie ranging from 0 to 10.
+         * Average ratings for the movie ranging from 0 to 10, with a decimal place.
          */
         public static final String MOVIE_VOTE_AVERAGE = "vote_average";
 
@@ -82,24 +126,20 @@ public class MoviesContract {
         public static final String MOVIE_TITLE = "title";
 
         /*
-         * The date the movie was released.
+         * The date the movie was released, as returned by the API(yyyy-MM-dd) or empty.
          */
         public static final String MOVIE_RELEASE_DATE = "release_date";
 
         /*
-         * Flag to indicate movies favourited by users.
+         * The release date as the number of days since 1970-01-01, null if the API has no date.
+         * Derived from MOVIE_RELEASE_DATE when the movie is parsed, for range queries and sorts.
          */
-        public static final String USER_FAVOURITE = "user_favourite";
+        public static final String MOVIE_RELEASE_DAY = "release_day";
 
         /*
-         * Flag to indicate movie is popular.
+         * The year the movie was released, null if the API has no date.
          */
-        public static final String POPULAR = "popular";
-
-        /*
-         * Flag to indicate movie is top rated.
-         */
-        public static final String TOP_RATED = "top_rated";
+        public static final String MOVIE_RELEASE_YEAR = "release_year";
 
         /**
          * Builds the Uri to query the movies database for a specific movie represented by the
@@ -112,5 +152,96 @@ public class MoviesContract {
         public static Uri buildMovieUriWithId(String movieId) {
             return CONTENT_URI.buildUpon().appendPath(movieId).build();
         }
+
+        /**
+         * Builds the Uri for the movies of a category, queried in the category's rank order by
+         * default. A bulk insert into it replaces all the movies of the category, ranked in the
+         * order of the rows.
+         *
+         * @param category The category, i.e. the API path of the list("popular", "upcoming").
+         * @return Uri of the category's movies.
+         */
+        public static Uri buildCategoryUri(String category) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_CATEGORY)
+                    .appendPath(category)
+                    .build();
+        }
+    }
+
+    /**
+     * The movies of each category, with their rank in the category. Categories are plain
+     * values, so a new movies list doesn't need a schema change. Accessed through
+     * {@link MoviesEntry#buildCategoryUri(String)}.
+     */
+    public static final class MovieCategoryEntry {
+        /*
+         * Table to store the category memberships.
+         */
+        public static final String TABLE_NAME = "movie_category";
+
+        /*
+         * The category, i.e. the API path of the list.
+         */
+        public static final String CATEGORY = "category";
+
+        /*
+         * Movie ID returned by the API.
+         */
+        public static final String MOVIE_ID = MoviesEntry.MOVIE_ID;
+
+        /*
+         * 1 based position of the movie in the list returned by the API.
+         */
+        public static final String RANK = "rank";
+
+        /*
+         * The API page the movie was returned on. A row bulk inserted into a category may carry
+         * it, it isn't stored with the movie.
+         */
+        public static final String PAGE = "page";
+    }
+
+    /**
+     * The movies favourited by the user. Each row is a snapshot of the movie taken when it was
+     * favourited(and refreshed whenever the movie is synced or its details are fetched), so the
+     * favourites don't depend on which movies the sync keeps in the movies table.
+     */
+    public static final class FavouritesEntry implements BaseColumns {
+        /*
+         * The base content URI to query the favourites.
+         */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_FAVOURITES)
+                .build();
+
+        /*
+         * Table to store the favourite movies.
+         */
+        public static final String TABLE_NAME = "favourites";
+
+        /*
+         * The snapshot columns, named like their counterparts in the movies table so the same
+         * projection works on both.
+         */
+        public static final String MOVIE_ID = MoviesEntry.MOVIE_ID;
+        public static final String MOVIE_POSTER_PATH = MoviesEntry.MOVIE_POSTER_PATH;
+        public static final String MOVIE_OVERVIEW = MoviesEntry.MOVIE_OVERVIEW;
+        public static final String MOVIE_VOTE_AVERAGE = MoviesEntry.MOVIE_VOTE_AVERAGE;
+        public static final String MOVIE_VOTE_COUNT = MoviesEntry.MOVIE_VOTE_COUNT;
+        public static final String MOVIE_TITLE = MoviesEntry.MOVIE_TITLE;
+        public static final String MOVIE_RELEASE_DATE = MoviesEntry.MOVIE_RELEASE_DATE;
+        public static final String MOVIE_RELEASE_DAY = MoviesEntry.MOVIE_RELEASE_DAY;
+        public static final String MOVIE_RELEASE_YEAR = MoviesEntry.MOVIE_RELEASE_YEAR;
+
+        /**
+         * Builds the Uri of the favourite represented by the movieId.
+         *
+         * @param movieId MovieID that was returned by the API.
+         * @return Uri of a specific favourite.
+         */
+        public static Uri buildFavouriteUriWithId(String movieId) {
+            return CONTENT_URI.buildUpon().appendPath(movieId).build();
+        }
     }
 }
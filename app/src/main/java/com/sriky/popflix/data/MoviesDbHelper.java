@@ -18,7 +18,10 @@ package com.sriky.popflix.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
 
+import com.sriky.popflix.data.MoviesContract.FavouritesEntry;
+import com.sriky.popflix.data.MoviesContract.MovieCategoryEntry;
 import com.sriky.popflix.data.MoviesContract.MoviesEntry;
 /**
  * Manages the local database for movies.
@@ -34,19 +37,203 @@ public class MoviesDbHelper extends SQLiteOpenHelper {
     /*
      * Database version, to be utilized when database scheme changes(i.e adding or removing db columns).
      */
-    public static final int DATABASE_VERSION = 2;
+    public static final int DATABASE_VERSION = 7;
+
+    /* the category flags of the movies table up to version 4, the categories were the API paths
+     * of the lists */
+    private static final String COLUMN_POPULAR_V4 = "popular";
+    private static final String COLUMN_TOP_RATED_V4 = "top_rated";
 
     private static final String DATABASE_ALTER_TEAM_1 = "ALTER TABLE "
             + MoviesEntry.TABLE_NAME
-            + " ADD COLUMN " + MoviesEntry.POPULAR + " BIT, "
-            + " ADD COLUMN " + MoviesEntry.TOP_RATED + " BIT;";
+            + " ADD COLUMN " + COLUMN_POPULAR_V4 + " BIT, "
+            + " ADD COLUMN " + COLUMN_TOP_RATED_V4 + " BIT;";
+
+    /* temporary name of the movies table while it's rebuilt */
+    private static final String MOVIES_TABLE_REBUILD = MoviesEntry.TABLE_NAME + "_rebuild";
+
+    /* the favourite flag of the movies table up to version 3 */
+    private static final String COLUMN_USER_FAVOURITE_V3 = "user_favourite";
+
+    /* columns of the movies table up to version 3 that are kept in version 4 */
+    private static final String[] MOVIES_TABLE_V3_KEPT_COLUMNS = {
+            MoviesEntry._ID,
+            MoviesEntry.MOVIE_ID,
+            MoviesEntry.MOVIE_TITLE,
+            MoviesEntry.MOVIE_POSTER_PATH,
+            MoviesEntry.MOVIE_OVERVIEW,
+            MoviesEntry.MOVIE_RELEASE_DATE,
+            MoviesEntry.MOVIE_VOTE_AVERAGE,
+            MoviesEntry.MOVIE_VOTE_COUNT,
+            COLUMN_POPULAR_V4,
+            COLUMN_TOP_RATED_V4
+    };
+
+    /* the movies table as of version 4, the migrations must not follow later schema changes */
+    private static final String SQL_CREATE_MOVIES_TABLE_V4 =
+            "CREATE TABLE " + MOVIES_TABLE_REBUILD + " (" +
+            MoviesEntry._ID                + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            MoviesEntry.MOVIE_ID           + " INTEGER NOT NULL, " +
+            MoviesEntry.MOVIE_TITLE        + " TEXT NOT NULL, " +
+            MoviesEntry.MOVIE_POSTER_PATH  + " TEXT NOT NULL, " +
+            MoviesEntry.MOVIE_OVERVIEW     + " MEDIUMTEXT NOT NULL, " +
+            MoviesEntry.MOVIE_RELEASE_DATE + " INTEGER NOT NULL, " +
+            MoviesEntry.MOVIE_VOTE_AVERAGE + " INTEGER NOT NULL, " +
+            MoviesEntry.MOVIE_VOTE_COUNT   + " INTEGER NOT NULL, " +
+            COLUMN_POPULAR_V4              + " BIT, " +
+            COLUMN_TOP_RATED_V4            + " BIT, " +
+            " UNIQUE (" + MoviesEntry.MOVIE_ID + "));";
+
+    /* columns of the movies table up to version 4 that are kept in version 5 */
+    private static final String[] MOVIES_TABLE_V4_KEPT_COLUMNS = {
+            MoviesEntry._ID,
+            MoviesEntry.MOVIE_ID,
+            MoviesEntry.MOVIE_TITLE,
+            MoviesEntry.MOVIE_POSTER_PATH,
+            MoviesEntry.MOVIE_OVERVIEW,
+            MoviesEntry.MOVIE_RELEASE_DATE,
+            MoviesEntry.MOVIE_VOTE_AVERAGE,
+            MoviesEntry.MOVIE_VOTE_COUNT
+    };
+
+    /* the movies table as of version 5 */
+    private static final String SQL_CREATE_MOVIES_TABLE_V5 =
+            "CREATE TABLE " + MOVIES_TABLE_REBUILD + " (" +
+            MoviesEntry._ID                + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            MoviesEntry.MOVIE_ID           + " INTEGER NOT NULL, " +
+            MoviesEntry.MOVIE_TITLE        + " TEXT NOT NULL, " +
+            MoviesEntry.MOVIE_POSTER_PATH  + " TEXT NOT NULL, " +
+            MoviesEntry.MOVIE_OVERVIEW     + " MEDIUMTEXT NOT NULL, " +
+            MoviesEntry.MOVIE_RELEASE_DATE + " INTEGER NOT NULL, " +
+            MoviesEntry.MOVIE_VOTE_AVERAGE + " INTEGER NOT NULL, " +
+            MoviesEntry.MOVIE_VOTE_COUNT   + " INTEGER NOT NULL, " +
+            " UNIQUE (" + MoviesEntry.MOVIE_ID + "));";
+
+    /* the movie_category table and its index as of version 5 */
+    private static final String SQL_CREATE_MOVIE_CATEGORY_TABLE_V5 =
+            "CREATE TABLE " + MovieCategoryEntry.TABLE_NAME + " (" +
+            MovieCategoryEntry.CATEGORY + " TEXT NOT NULL, " +
+            MovieCategoryEntry.MOVIE_ID + " INTEGER NOT NULL, " +
+            MovieCategoryEntry.RANK     + " INTEGER NOT NULL, " +
+            MovieCategoryEntry.PAGE     + " INTEGER NOT NULL, " +
+            " PRIMARY KEY (" + MovieCategoryEntry.MOVIE_ID + ", "
+                    + MovieCategoryEntry.CATEGORY + "));";
+    private static final String SQL_CREATE_MOVIE_CATEGORY_INDEX_V5 =
+            "CREATE INDEX " + MovieCategoryEntry.TABLE_NAME + "_rank ON "
+                    + MovieCategoryEntry.TABLE_NAME + " ("
+                    + MovieCategoryEntry.CATEGORY + ", "
+                    + MovieCategoryEntry.RANK + ", "
+                    + MovieCategoryEntry.MOVIE_ID + ");";
+
+    /* the indexes of the hot queries as of version 6 */
+    private static final String SQL_CREATE_MOVIE_CATEGORY_INDEX_V6 =
+            "CREATE INDEX " + MovieCategoryEntry.TABLE_NAME + "_rank ON "
+                    + MovieCategoryEntry.TABLE_NAME + " ("
+                    + MovieCategoryEntry.CATEGORY + ", "
+                    + MovieCategoryEntry.RANK + ", "
+                    + MovieCategoryEntry.MOVIE_ID + ", "
+                    + MovieCategoryEntry.PAGE + ");";
+    private static final String SQL_CREATE_FAVOURITES_INDEX_V6 =
+            "CREATE INDEX " + FavouritesEntry.TABLE_NAME + "_grid ON "
+                    + FavouritesEntry.TABLE_NAME + " ("
+                    + FavouritesEntry.MOVIE_ID + ", "
+                    + FavouritesEntry.MOVIE_POSTER_PATH + ");";
+
+    /* the favourites table as of version 4 */
+    private static final String SQL_CREATE_FAVOURITES_TABLE_V4 =
+            "CREATE TABLE " + FavouritesEntry.TABLE_NAME + " (" +
+            FavouritesEntry._ID                + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            FavouritesEntry.MOVIE_ID           + " INTEGER NOT NULL, " +
+            FavouritesEntry.MOVIE_TITLE        + " TEXT NOT NULL, " +
+            FavouritesEntry.MOVIE_POSTER_PATH  + " TEXT NOT NULL, " +
+            FavouritesEntry.MOVIE_OVERVIEW     + " MEDIUMTEXT NOT NULL, " +
+            FavouritesEntry.MOVIE_RELEASE_DATE + " INTEGER NOT NULL, " +
+            FavouritesEntry.MOVIE_VOTE_AVERAGE + " INTEGER NOT NULL, " +
+            FavouritesEntry.MOVIE_VOTE_COUNT   + " INTEGER NOT NULL, " +
+            " UNIQUE (" + FavouritesEntry.MOVIE_ID + "));";
+
+    /* the snapshot columns of a favourite, all of them are movies table columns as well */
+    private static final String[] FAVOURITES_TABLE_V4_SNAPSHOT_COLUMNS = {
+            FavouritesEntry.MOVIE_ID,
+            FavouritesEntry.MOVIE_TITLE,
+            FavouritesEntry.MOVIE_POSTER_PATH,
+            FavouritesEntry.MOVIE_OVERVIEW,
+            FavouritesEntry.MOVIE_RELEASE_DATE,
+            FavouritesEntry.MOVIE_VOTE_AVERAGE,
+            FavouritesEntry.MOVIE_VOTE_COUNT
+    };
+
+    /* temporary name of the favourites table while it's rebuilt */
+    private static final String FAVOURITES_TABLE_REBUILD = FavouritesEntry.TABLE_NAME + "_rebuild";
+
+    /* columns of the movies and the favourites tables up to version 6 that are kept in
+     * version 7 */
+    private static final String[] MOVIES_TABLE_V6_KEPT_COLUMNS = {
+            MoviesEntry._ID,
+            MoviesEntry.MOVIE_ID,
+            MoviesEntry.MOVIE_TITLE,
+            MoviesEntry.MOVIE_POSTER_PATH,
+            MoviesEntry.MOVIE_OVERVIEW,
+            MoviesEntry.MOVIE_RELEASE_DATE,
+            MoviesEntry.MOVIE_VOTE_AVERAGE,
+            MoviesEntry.MOVIE_VOTE_COUNT
+    };
+
+    /* the release day and year computed from the release date(yyyy-MM-dd or empty), null if it
+     * isn't a date. 2440587.5 is the julian day of 1970-01-01. */
+    private static final String SQL_RELEASE_DAY_V7 = "CAST(julianday("
+            + MoviesEntry.MOVIE_RELEASE_DATE + ") - 2440587.5 AS INTEGER)";
+    private static final String SQL_RELEASE_YEAR_V7 = "CAST(strftime('%Y', "
+            + MoviesEntry.MOVIE_RELEASE_DATE + ") AS INTEGER)";
+
+    /* the movies table as of version 7 */
+    private static final String SQL_CREATE_MOVIES_TABLE_V7 =
+            "CREATE TABLE " + MOVIES_TABLE_REBUILD + " (" +
+            MoviesEntry._ID                + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            MoviesEntry.MOVIE_ID           + " INTEGER NOT NULL, " +
+            MoviesEntry.MOVIE_TITLE        + " TEXT NOT NULL, " +
+            MoviesEntry.MOVIE_POSTER_PATH  + " TEXT NOT NULL, " +
+            MoviesEntry.MOVIE_OVERVIEW     + " MEDIUMTEXT NOT NULL, " +
+            MoviesEntry.MOVIE_RELEASE_DATE + " TEXT NOT NULL, " +
+            MoviesEntry.MOVIE_RELEASE_DAY  + " INTEGER, " +
+            MoviesEntry.MOVIE_RELEASE_YEAR + " INTEGER, " +
+            MoviesEntry.MOVIE_VOTE_AVERAGE + " REAL NOT NULL, " +
+            MoviesEntry.MOVIE_VOTE_COUNT   + " INTEGER NOT NULL, " +
+            " UNIQUE (" + MoviesEntry.MOVIE_ID + "));";
+
+    /* the favourites table as of version 7 */
+    private static final String SQL_CREATE_FAVOURITES_TABLE_V7 =
+            "CREATE TABLE " + FAVOURITES_TABLE_REBUILD + " (" +
+            FavouritesEntry._ID                + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            FavouritesEntry.MOVIE_ID           + " INTEGER NOT NULL, " +
+            FavouritesEntry.MOVIE_TITLE        + " TEXT NOT NULL, " +
+            FavouritesEntry.MOVIE_POSTER_PATH  + " TEXT NOT NULL, " +
+            FavouritesEntry.MOVIE_OVERVIEW     + " MEDIUMTEXT NOT NULL, " +
+            FavouritesEntry.MOVIE_RELEASE_DATE + " TEXT NOT NULL, " +
+            FavouritesEntry.MOVIE_RELEASE_DAY  + " INTEGER, " +
+            FavouritesEntry.MOVIE_RELEASE_YEAR + " INTEGER, " +
+            FavouritesEntry.MOVIE_VOTE_AVERAGE + " REAL NOT NULL, " +
+            FavouritesEntry.MOVIE_VOTE_COUNT   + " INTEGER NOT NULL, " +
+            " UNIQUE (" + FavouritesEntry.MOVIE_ID + "));";
 
     public MoviesDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * @param context      Used to open the database.
+     * @param databaseName The database file, e.g. a test's own database next to the app's.
+     */
+    MoviesDbHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        /* with write-ahead logging the queries run on the pool's read connections against the
+         * last committed state, so the UI never waits for a sync holding the write transaction */
+        setWriteAheadLoggingEnabled(true);
     }
 
     /**
-     * Creates the movies database to store data returned by the API.
+     * Creates the movies database to store data returned by the API, the categories the movies
+     * are in and the user's favourites.
      *
      * @param sqLiteDatabase The movies database.
      */
@@ -59,19 +246,66 @@ public class MoviesDbHelper extends SQLiteOpenHelper {
                 MoviesEntry.MOVIE_TITLE        + " TEXT NOT NULL, " +
                 MoviesEntry.MOVIE_POSTER_PATH  + " TEXT NOT NULL, " +
                 MoviesEntry.MOVIE_OVERVIEW     + " MEDIUMTEXT NOT NULL, " +
-                MoviesEntry.MOVIE_RELEASE_DATE + " INTEGER NOT NULL, " +
-                MoviesEntry.MOVIE_VOTE_AVERAGE + " INTEGER NOT NULL, " +
+                MoviesEntry.MOVIE_RELEASE_DATE + " TEXT NOT NULL, " +
+                MoviesEntry.MOVIE_RELEASE_DAY  + " INTEGER, " +
+                MoviesEntry.MOVIE_RELEASE_YEAR + " INTEGER, " +
+                MoviesEntry.MOVIE_VOTE_AVERAGE + " REAL NOT NULL, " +
                 MoviesEntry.MOVIE_VOTE_COUNT   + " INTEGER NOT NULL, " +
-                MoviesEntry.USER_FAVOURITE     + " BIT, " +
-                MoviesEntry.POPULAR            + " BIT, " +
-                MoviesEntry.TOP_RATED          + " BIT, " +
-                /* ensuring the table will contain single entry per MovieId.
-                 * If there is a conflict the old entry will be replaced with a new entry
+                /* ensuring the table will contain single entry per MovieId. The provider merges
+                 * rows for a stored movie into the existing one, so its _ID is kept.
                  */
-                " UNIQUE (" + MoviesEntry.MOVIE_ID + ") ON CONFLICT REPLACE);";
+                " UNIQUE (" + MoviesEntry.MOVIE_ID + "));";
+
+        final String SQL_CREATE_FAVOURITES_TABLE =
+                "CREATE TABLE " + FavouritesEntry.TABLE_NAME + " (" +
+                FavouritesEntry._ID                + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                FavouritesEntry.MOVIE_ID           + " INTEGER NOT NULL, " +
+                FavouritesEntry.MOVIE_TITLE        + " TEXT NOT NULL, " +
+                FavouritesEntry.MOVIE_POSTER_PATH  + " TEXT NOT NULL, " +
+                FavouritesEntry.MOVIE_OVERVIEW     + " MEDIUMTEXT NOT NULL, " +
+                FavouritesEntry.MOVIE_RELEASE_DATE + " TEXT NOT NULL, " +
+                FavouritesEntry.MOVIE_RELEASE_DAY  + " INTEGER, " +
+                FavouritesEntry.MOVIE_RELEASE_YEAR + " INTEGER, " +
+                FavouritesEntry.MOVIE_VOTE_AVERAGE + " REAL NOT NULL, " +
+                FavouritesEntry.MOVIE_VOTE_COUNT   + " INTEGER NOT NULL, " +
+                /* a movie is favourited once */
+                " UNIQUE (" + FavouritesEntry.MOVIE_ID + "));";
+
+        final String SQL_CREATE_MOVIE_CATEGORY_TABLE =
+                "CREATE TABLE " + MovieCategoryEntry.TABLE_NAME + " (" +
+                MovieCategoryEntry.CATEGORY + " TEXT NOT NULL, " +
+                MovieCategoryEntry.MOVIE_ID + " INTEGER NOT NULL, " +
+                MovieCategoryEntry.RANK     + " INTEGER NOT NULL, " +
+                MovieCategoryEntry.PAGE     + " INTEGER NOT NULL, " +
+                /* movie ID first, it also serves the lookup whether a movie is in any category */
+                " PRIMARY KEY (" + MovieCategoryEntry.MOVIE_ID + ", "
+                        + MovieCategoryEntry.CATEGORY + "));";
+
+        /* covers the grid query: the movie IDs of a category in rank order, read from the index
+         * alone with no sorting. With the page it covers the sync's read of the memberships
+         * too. */
+        final String SQL_CREATE_MOVIE_CATEGORY_INDEX =
+                "CREATE INDEX " + MovieCategoryEntry.TABLE_NAME + "_rank ON "
+                        + MovieCategoryEntry.TABLE_NAME + " ("
+                        + MovieCategoryEntry.CATEGORY + ", "
+                        + MovieCategoryEntry.RANK + ", "
+                        + MovieCategoryEntry.MOVIE_ID + ", "
+                        + MovieCategoryEntry.PAGE + ");";
 
-        //create the table from the creation statement string defined above.
+        /* covers the favourites grid, which lists every favourite. It reads the narrow index
+         * instead of the rows with their overviews. */
+        final String SQL_CREATE_FAVOURITES_INDEX =
+                "CREATE INDEX " + FavouritesEntry.TABLE_NAME + "_grid ON "
+                        + FavouritesEntry.TABLE_NAME + " ("
+                        + FavouritesEntry.MOVIE_ID + ", "
+                        + FavouritesEntry.MOVIE_POSTER_PATH + ");";
+
+        //create the tables from the creation statement strings defined above.
         sqLiteDatabase.execSQL(SQL_CREATE_MOVIES_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_FAVOURITES_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_MOVIE_CATEGORY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_MOVIE_CATEGORY_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_FAVOURITES_INDEX);
     }
 
     @Override
@@ -79,5 +313,90 @@ public class MoviesDbHelper extends SQLiteOpenHelper {
         if (oldVersion < 1) {
             sqLiteDatabase.execSQL(DATABASE_ALTER_TEAM_1);
         }
+        if (oldVersion < 4) {
+            /* the favourites move to their own table, with a snapshot of the movie */
+            String snapshotColumns = TextUtils.join(", ", FAVOURITES_TABLE_V4_SNAPSHOT_COLUMNS);
+            sqLiteDatabase.execSQL(SQL_CREATE_FAVOURITES_TABLE_V4);
+            sqLiteDatabase.execSQL("INSERT INTO " + FavouritesEntry.TABLE_NAME
+                    + " (" + snapshotColumns + ")"
+                    + " SELECT " + snapshotColumns + " FROM " + MoviesEntry.TABLE_NAME
+                    + " WHERE " + COLUMN_USER_FAVOURITE_V3 + " = 1");
+
+            /* SQLite can't drop a column or change a constraint in place, so the movies table is
+             * rebuilt without the favourite flag and the ON CONFLICT REPLACE(dropped in version
+             * 3), keeping the rows and their _IDs. */
+            String columns = TextUtils.join(", ", MOVIES_TABLE_V3_KEPT_COLUMNS);
+            sqLiteDatabase.execSQL(SQL_CREATE_MOVIES_TABLE_V4);
+            sqLiteDatabase.execSQL("INSERT INTO " + MOVIES_TABLE_REBUILD + " (" + columns + ")"
+                    + " SELECT " + columns + " FROM " + MoviesEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE " + MoviesEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("ALTER TABLE " + MOVIES_TABLE_REBUILD
+                    + " RENAME TO " + MoviesEntry.TABLE_NAME);
+        }
+        if (oldVersion < 5) {
+            /* the category flags become rows of movie_category. The API rank wasn't stored, the
+             * insertion order stands in for it until the next sync of the category. */
+            sqLiteDatabase.execSQL(SQL_CREATE_MOVIE_CATEGORY_TABLE_V5);
+            sqLiteDatabase.execSQL(SQL_CREATE_MOVIE_CATEGORY_INDEX_V5);
+            for (String categoryColumn : new String[]{COLUMN_POPULAR_V4, COLUMN_TOP_RATED_V4}) {
+                sqLiteDatabase.execSQL("INSERT INTO " + MovieCategoryEntry.TABLE_NAME + " ("
+                        + MovieCategoryEntry.CATEGORY + ", "
+                        + MovieCategoryEntry.MOVIE_ID + ", "
+                        + MovieCategoryEntry.RANK + ", "
+                        + MovieCategoryEntry.PAGE + ")"
+                        + " SELECT ?, " + MoviesEntry.MOVIE_ID + ", " + MoviesEntry._ID + ", 0"
+                        + " FROM " + MoviesEntry.TABLE_NAME
+                        + " WHERE " + categoryColumn + " = 1",
+                        new Object[]{categoryColumn});
+            }
+
+            /* and the movies table is rebuilt without them */
+            String columns = TextUtils.join(", ", MOVIES_TABLE_V4_KEPT_COLUMNS);
+            sqLiteDatabase.execSQL(SQL_CREATE_MOVIES_TABLE_V5);
+            sqLiteDatabase.execSQL("INSERT INTO " + MOVIES_TABLE_REBUILD + " (" + columns + ")"
+                    + " SELECT " + columns + " FROM " + MoviesEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE " + MoviesEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("ALTER TABLE " + MOVIES_TABLE_REBUILD
+                    + " RENAME TO " + MoviesEntry.TABLE_NAME);
+        }
+        if (oldVersion < 6) {
+            /* covering indexes for the hot queries, see onCreate() */
+            sqLiteDatabase.execSQL("DROP INDEX " + MovieCategoryEntry.TABLE_NAME + "_rank");
+            sqLiteDatabase.execSQL(SQL_CREATE_MOVIE_CATEGORY_INDEX_V6);
+            sqLiteDatabase.execSQL(SQL_CREATE_FAVOURITES_INDEX_V6);
+        }
+        if (oldVersion < 7) {
+            /* the release date gets typed day and year columns, backfilled from the stored date,
+             * and the ratings become REAL. Both tables are rebuilt for the new column types,
+             * which drops the favourites index, so it's created again. */
+            rebuildWithReleaseDay(sqLiteDatabase, MoviesEntry.TABLE_NAME,
+                    MOVIES_TABLE_REBUILD, SQL_CREATE_MOVIES_TABLE_V7);
+            rebuildWithReleaseDay(sqLiteDatabase, FavouritesEntry.TABLE_NAME,
+                    FAVOURITES_TABLE_REBUILD, SQL_CREATE_FAVOURITES_TABLE_V7);
+            sqLiteDatabase.execSQL(SQL_CREATE_FAVOURITES_INDEX_V6);
+        }
+    }
+
+    /**
+     * Rebuilds a version 6 movies or favourites table as of version 7, keeping the rows and
+     * their _IDs and computing the release day and year of every row.
+     *
+     * @param sqLiteDatabase The movies database.
+     * @param table          The table to rebuild.
+     * @param rebuildTable   The temporary name of the rebuilt table.
+     * @param createRebuild  The statement creating the rebuilt table.
+     */
+    private static void rebuildWithReleaseDay(SQLiteDatabase sqLiteDatabase, String table,
+                                              String rebuildTable, String createRebuild) {
+        String columns = TextUtils.join(", ", MOVIES_TABLE_V6_KEPT_COLUMNS);
+        sqLiteDatabase.execSQL(createRebuild);
+        sqLiteDatabase.execSQL("INSERT INTO " + rebuildTable + " (" + columns + ", "
+                + MoviesEntry.MOVIE_RELEASE_DAY + ", "
+                + MoviesEntry.MOVIE_RELEASE_YEAR + ")"
+                + " SELECT " + columns + ", "
+                + SQL_RELEASE_DAY_V7 + ", "
+                + SQL_RELEASE_YEAR_V7 + " FROM " + table);
+        sqLiteDatabase.execSQL("DROP TABLE " + table);
+        sqLiteDatabase.execSQL("ALTER TABLE " + rebuildTable + " RENAME TO " + table);
     }
 }
@@ -16,33 +16,93 @@
 package com.sriky.popflix.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
 
+import com.sriky.popflix.data.MoviesContract.FavouritesEntry;
+import com.sriky.popflix.data.MoviesContract.MovieCategoryEntry;
 import com.sriky.popflix.data.MoviesContract.MoviesEntry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
- * The ContentProvider for all of PopFlix's data. It supports bulk_insert, query, delete operations.
+ * The ContentProvider for all of PopFlix's data. It serves the movies, the movies of a category,
+ * a movie by its ID, the favourites and a favourite by its movie ID, and supports bulk_insert,
+ * insert, query, update and delete on them. The directory queries can be paged by key with the
+ * after and limit parameters, see {@link MoviesContract#buildPageUri}.
+ * <p>
+ * applyBatch() applies its operations in a single transaction and notifies each changed Uri once
+ * it commits. A sync brackets its writes with {@link MoviesContract#METHOD_BEGIN_SYNC} and
+ * {@link MoviesContract#METHOD_END_SYNC} through call(), which holds off the automatic WAL
+ * checkpoints until the last sync ends.
  */
 
 public class MoviesProvider extends ContentProvider {
+    private static final String TAG = MoviesProvider.class.getSimpleName();
 
     /* The identifier for the movies directory */
     public static final int CODE_MOVIES = 100;
     /* The identifier per movie which would be represented by the movieId */
     public static final int CODE_MOVIE_WITH_ID = 101;
+    /* The identifier for the movies of a category, i.e. popular */
+    public static final int CODE_MOVIES_IN_CATEGORY = 102;
+    /* The identifier for the favourites directory */
+    public static final int CODE_FAVOURITES = 200;
+    /* The identifier per favourite which would be represented by the movieId */
+    public static final int CODE_FAVOURITE_WITH_ID = 201;
+
+    /* the memberships of a category joined with their movies. CROSS JOIN makes SQLite walk the
+     * memberships first, in rank order from the category index, and look each movie up by its
+     * movie ID. USING keeps a single, unqualified movie_id column. */
+    static final String CATEGORY_MOVIES_TABLES = MovieCategoryEntry.TABLE_NAME
+            + " CROSS JOIN " + MoviesEntry.TABLE_NAME
+            + " USING (" + MovieCategoryEntry.MOVIE_ID + ")";
+    /* selects the rows of a category from CATEGORY_MOVIES_TABLES */
+    static final String CATEGORY_SELECTION = MovieCategoryEntry.CATEGORY + " = ?";
+
+    /* deletes the movie unless it is in a category, bound to the movie ID */
+    static final String SQL_DELETE_MOVIE_IF_UNUSED = "DELETE FROM " + MoviesEntry.TABLE_NAME
+            + " WHERE " + MoviesEntry.MOVIE_ID + " = ?"
+            + " AND NOT EXISTS (SELECT 1 FROM " + MovieCategoryEntry.TABLE_NAME
+            + " WHERE " + MovieCategoryEntry.TABLE_NAME + "." + MovieCategoryEntry.MOVIE_ID
+            + " = " + MoviesEntry.TABLE_NAME + "." + MoviesEntry.MOVIE_ID + ")";
 
     /* UriMatcher used by MoviesProvider. */
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     /* Handle to the SQLLiteOpenHelper */
     private MoviesDbHelper mMoviesDbHelper;
 
+    /* number of syncs between METHOD_BEGIN_SYNC and METHOD_END_SYNC */
+    private int mSyncsInProgress;
+    /* the automatic checkpoint interval(pages) to restore once the syncs are done */
+    private long mWalAutoCheckpointPages;
+
+    /* the Uris changed by the batch the thread is applying, notified once it commits. Null
+     * outside of applyBatch(), the changes are notified right away then. */
+    private final ThreadLocal<Set<Uri>> mBatchChangedUris = new ThreadLocal<>();
+
     /**
      * Builds the UriMatcher that will match each URI to the CODE_MOVIES and
      * CODE_MOVIE_WITH_ID constants defined above.
@@ -60,6 +120,21 @@ public class MoviesProvider extends ContentProvider {
         uriMatcher.addURI(MoviesContract.CONTENT_AUTHORITY,
                 MoviesContract.PATH_MOVIES + "/#", CODE_MOVIE_WITH_ID);
 
+        /* This Uri should resolve to "content://com.sriky.popflix/movies/category/popular" for
+         * the movies of a category */
+        uriMatcher.addURI(MoviesContract.CONTENT_AUTHORITY,
+                MoviesContract.PATH_MOVIES + "/" + MoviesContract.PATH_CATEGORY + "/*",
+                CODE_MOVIES_IN_CATEGORY);
+
+        /* This Uri should resolve to "content://com.sriky.popflix/favourites" */
+        uriMatcher.addURI(MoviesContract.CONTENT_AUTHORITY,
+                MoviesContract.PATH_FAVOURITES, CODE_FAVOURITES);
+
+        /* This Uri should resolve to "content://com.sriky.popflix/favourites/2343455678" for a
+         * particular favourite represented by the movieId */
+        uriMatcher.addURI(MoviesContract.CONTENT_AUTHORITY,
+                MoviesContract.PATH_FAVOURITES + "/#", CODE_FAVOURITE_WITH_ID);
+
         return uriMatcher;
     }
 
@@ -72,44 +147,266 @@ public class MoviesProvider extends ContentProvider {
     }
 
     /**
-     * Bulk insert items into the movies database.
+     * Bulk insert items into the movies database. A row for a movie that is already stored is
+     * merged into it: the columns the row has values for are updated, the others and the _ID
+     * are kept.
+     * <p>
+     * For a category Uri the rows are all the movies of the category, in rank order. Only the
+     * movies and ranks that differ from the stored ones are written, and the movies that dropped
+     * out of the category are removed from it, all in a single transaction.
+     * </p>
      *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
      *               This must not be {@code null}.
-     * @return The number of values that were inserted.
+     * @return The number of rows that were inserted or merged, for a category Uri the number of
+     * movies that were written, re-ranked or removed from the category.
      */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
         SQLiteDatabase db = mMoviesDbHelper.getWritableDatabase();
+        int rowsWritten;
 
         switch (sUriMatcher.match(uri)) {
             case CODE_MOVIES: {
-                int rowsInserted = 0;
                 db.beginTransaction();
                 try {
-                    /* Parse the values and entry them one by one. */
-                    for (ContentValues value : values) {
-                        long id = db.insert(MoviesEntry.TABLE_NAME, null, value);
-                        if (id != -1) {
-                            rowsInserted++;
-                        }
-                    }
+                    rowsWritten = mergeRows(db, values);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
+                break;
+            }
 
-                /* Notify the data change so the cursor gets notified to update the UI. */
-                if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+            case CODE_MOVIES_IN_CATEGORY: {
+                String category = getCategory(uri);
+                db.beginTransaction();
+                try {
+                    rowsWritten = replaceCategory(db, category, values);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
                 }
-                return rowsInserted;
+                break;
             }
 
             default:
                 return super.bulkInsert(uri, values);
         }
+
+        /* Notify the data change so the cursor gets notified to update the UI. */
+        if (rowsWritten > 0) {
+            notifyChange(uri);
+        }
+        return rowsWritten;
+    }
+
+    /**
+     * Merges the rows into the movies table, see {@link #bulkInsert(Uri, ContentValues[])}. The
+     * statements are compiled once per set of columns and reused for every row with that set.
+     * Call it within a transaction.
+     *
+     * @param db     The movies database.
+     * @param values The rows to merge.
+     * @return The number of rows that were inserted or merged.
+     */
+    private static int mergeRows(SQLiteDatabase db, ContentValues[] values) {
+        long start = SystemClock.elapsedRealtime();
+        int rowsInserted = 0;
+        int rowsMerged = 0;
+        /* comma separated columns -> the statements for them */
+        Map<String, MergeStatements> statements = new HashMap<>();
+        try {
+            /* Parse the values and entry them one by one. */
+            for (ContentValues value : values) {
+                if (value.size() == 0) {
+                    Log.e(TAG, "mergeRows: skipping a row without values");
+                    continue;
+                }
+                String[] columns = value.keySet().toArray(new String[value.size()]);
+                Arrays.sort(columns);
+                String shape = TextUtils.join(",", columns);
+                MergeStatements mergeStatements = statements.get(shape);
+                if (mergeStatements == null) {
+                    mergeStatements = new MergeStatements(db, columns);
+                    statements.put(shape, mergeStatements);
+                }
+                try {
+                    if (mergeStatements.update(value)) {
+                        rowsMerged++;
+                    } else if (mergeStatements.insert(value) != -1) {
+                        rowsInserted++;
+                    }
+                } catch (SQLException e) {
+                    /* same as db.insert(), skip the row and keep going */
+                    Log.e(TAG, "mergeRows: unable to insert " + value, e);
+                }
+            }
+        } finally {
+            for (MergeStatements mergeStatements : statements.values()) {
+                mergeStatements.close();
+            }
+        }
+
+        int rowsWritten = rowsInserted + rowsMerged;
+        long elapsedMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+        Log.d(TAG, "mergeRows: " + rowsWritten + " of " + values.length + " rows("
+                + rowsMerged + " merged) in " + elapsedMillis + "ms("
+                + (rowsWritten * 1000L / elapsedMillis) + " rows/sec), "
+                + statements.size() + " column set(s)");
+        return rowsWritten;
+    }
+
+    /**
+     * Makes the rows the movies of the category, ranked in the order of the rows. Movies that
+     * differ from the stored ones are merged, unchanged ones are skipped, and so are the
+     * memberships whose rank and page didn't change. Stored movies of the category that aren't
+     * in the rows are taken out of it, and deleted if they aren't in another category.
+     * Favourites are kept in their own table, so they don't hold on to catalog rows.
+     * Call it within a transaction.
+     *
+     * @param db       The movies database.
+     * @param category The category.
+     * @param values   All the movies of the category, optionally with their
+     *                 {@link MovieCategoryEntry#PAGE}.
+     * @return The number of movies that were written, re-ranked or taken out of the category.
+     */
+    private static int replaceCategory(SQLiteDatabase db, String category,
+                                       ContentValues[] values) {
+        /* movie ID -> stored values of the movies currently in the category, with their rank */
+        Map<Long, ContentValues> storedMovies = new HashMap<>();
+        Cursor cursor = db.query(CATEGORY_MOVIES_TABLES,
+                null,
+                CATEGORY_SELECTION,
+                new String[]{category},
+                null,
+                null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues storedValues = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(cursor, storedValues);
+                storedMovies.put(storedValues.getAsLong(MoviesEntry.MOVIE_ID), storedValues);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int rowsWritten = 0;
+        List<ContentValues> changedValues = new ArrayList<>(values.length);
+        SQLiteStatement putInCategory = db.compileStatement("INSERT OR REPLACE INTO "
+                + MovieCategoryEntry.TABLE_NAME + " ("
+                + MovieCategoryEntry.CATEGORY + ","
+                + MovieCategoryEntry.MOVIE_ID + ","
+                + MovieCategoryEntry.RANK + ","
+                + MovieCategoryEntry.PAGE + ") VALUES (?,?,?,?)");
+        try {
+            for (int i = 0; i < values.length; i++) {
+                ContentValues movieValues = new ContentValues(values[i]);
+                Long movieId = movieValues.getAsLong(MoviesEntry.MOVIE_ID);
+                if (movieId == null) {
+                    Log.e(TAG, "replaceCategory: skipping a row without a movie ID");
+                    continue;
+                }
+                /* the page belongs to the membership, not the movie */
+                Integer page = movieValues.getAsInteger(MovieCategoryEntry.PAGE);
+                movieValues.remove(MovieCategoryEntry.PAGE);
+                long rank = i + 1;
+
+                ContentValues storedValues = storedMovies.remove(movieId);
+                boolean movieChanged = storedValues == null
+                        || !isStored(movieValues, storedValues);
+                if (movieChanged) {
+                    changedValues.add(movieValues);
+                }
+                boolean membershipChanged = storedValues == null
+                        || storedValues.getAsLong(MovieCategoryEntry.RANK) != rank
+                        || (page != null
+                        && !page.equals(storedValues.getAsInteger(MovieCategoryEntry.PAGE)));
+                if (membershipChanged) {
+                    putInCategory.bindString(1, category);
+                    putInCategory.bindLong(2, movieId);
+                    putInCategory.bindLong(3, rank);
+                    putInCategory.bindLong(4, page != null ? page : 0);
+                    putInCategory.executeInsert();
+                }
+                if (movieChanged || membershipChanged) {
+                    rowsWritten++;
+                }
+            }
+        } finally {
+            putInCategory.close();
+        }
+        mergeRows(db, changedValues.toArray(new ContentValues[changedValues.size()]));
+
+        /* what is left in storedMovies dropped out of the category */
+        if (!storedMovies.isEmpty()) {
+            SQLiteStatement removeFromCategory = db.compileStatement("DELETE FROM "
+                    + MovieCategoryEntry.TABLE_NAME
+                    + " WHERE " + MovieCategoryEntry.CATEGORY + " = ?"
+                    + " AND " + MovieCategoryEntry.MOVIE_ID + " = ?");
+            SQLiteStatement deleteIfUnused = db.compileStatement(SQL_DELETE_MOVIE_IF_UNUSED);
+            try {
+                for (Long movieId : storedMovies.keySet()) {
+                    removeFromCategory.bindString(1, category);
+                    removeFromCategory.bindLong(2, movieId);
+                    rowsWritten += removeFromCategory.executeUpdateDelete();
+                    deleteIfUnused.bindLong(1, movieId);
+                    deleteIfUnused.executeUpdateDelete();
+                }
+            } finally {
+                removeFromCategory.close();
+                deleteIfUnused.close();
+            }
+        }
+
+        Log.d(TAG, "replaceCategory: " + category + " " + changedValues.size()
+                + " changed, " + rowsWritten + " written, "
+                + storedMovies.size() + " dropped out");
+        return rowsWritten;
+    }
+
+    /**
+     * @param values       The values of a row.
+     * @param storedValues The stored values of the movie, as strings.
+     * @return TRUE if every value of the row equals the stored one, i.e. merging the row would
+     * change nothing.
+     */
+    private static boolean isStored(ContentValues values, ContentValues storedValues) {
+        for (String column : values.keySet()) {
+            Object value = values.get(column);
+            String storedValue = storedValues.getAsString(column);
+            if (value == null || storedValue == null) {
+                if (value != null || storedValue != null) return false;
+            } else if (value instanceof Number) {
+                /* numbers come back in their stored form, e.g. 8.0 as "8" */
+                try {
+                    if (((Number) value).doubleValue() != Double.parseDouble(storedValue)) {
+                        return false;
+                    }
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            } else if (value instanceof Boolean) {
+                if (!((Boolean) value ? "1" : "0").equals(storedValue)) return false;
+            } else if (!value.toString().equals(storedValue)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param uri A category Uri.
+     * @return The category.
+     */
+    private static String getCategory(Uri uri) {
+        String category = uri.getLastPathSegment();
+        if (TextUtils.isEmpty(category)) {
+            throw new UnsupportedOperationException("Unknown category:" + uri);
+        }
+        return category;
     }
 
     /**
@@ -145,6 +442,20 @@ public class MoviesProvider extends ContentProvider {
                 break;
             }
 
+            case CODE_MOVIES_IN_CATEGORY: {
+                /* in the API's order unless asked otherwise */
+                cursorToRet = queryPage(db,
+                        uri,
+                        CATEGORY_MOVIES_TABLES,
+                        strings,
+                        DatabaseUtils.concatenateWhere(CATEGORY_SELECTION, s),
+                        DatabaseUtils.appendSelectionArgs(new String[]{getCategory(uri)},
+                                strings1),
+                        s1 != null ? s1 : MovieCategoryEntry.RANK,
+                        MovieCategoryEntry.RANK);
+                break;
+            }
+
             case CODE_MOVIE_WITH_ID: {
                 /* get the movieId which will be the last segment in the Uri. */
                 String movieId = uri.getLastPathSegment();
@@ -160,6 +471,29 @@ public class MoviesProvider extends ContentProvider {
                 break;
             }
 
+            case CODE_FAVOURITES: {
+                cursorToRet = queryPage(db,
+                        uri,
+                        FavouritesEntry.TABLE_NAME,
+                        strings,
+                        s,
+                        strings1,
+                        s1,
+                        FavouritesEntry.MOVIE_ID);
+                break;
+            }
+
+            case CODE_FAVOURITE_WITH_ID: {
+                cursorToRet = db.query(FavouritesEntry.TABLE_NAME,
+                        strings,
+                        FavouritesEntry.MOVIE_ID + " =? ",
+                        new String[]{uri.getLastPathSegment()},
+                        null,
+                        null,
+                        s1);
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown Uri:" + uri);
         }
@@ -168,6 +502,50 @@ public class MoviesProvider extends ContentProvider {
         return cursorToRet;
     }
 
+    /**
+     * Queries the rows, or a page of them if the Uri has the query parameters of one(see
+     * {@link MoviesContract#buildPageUri(Uri, long, int)}). A page is the rows whose key is
+     * greater than the one after which the page starts, sorted by the key and limited.
+     *
+     * @param db            The movies database.
+     * @param uri           The URI to query.
+     * @param tables        The tables to query.
+     * @param projection    The columns to return.
+     * @param selection     The selection.
+     * @param selectionArgs The arguments of the selection.
+     * @param sortOrder     How the rows are sorted, a page doesn't allow one other than the key.
+     * @param keyColumn     The column a page is sorted by, unique within the selection.
+     * @return A Cursor with the rows or the page.
+     */
+    private static Cursor queryPage(SQLiteDatabase db, Uri uri, String tables,
+                                    String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder,
+                                    String keyColumn) {
+        String afterKey = uri.getQueryParameter(MoviesContract.QUERY_PARAMETER_AFTER);
+        String limit = uri.getQueryParameter(MoviesContract.QUERY_PARAMETER_LIMIT);
+        if (afterKey == null && limit == null) {
+            return db.query(tables, projection, selection, selectionArgs, null, null, sortOrder);
+        }
+
+        if (sortOrder != null && !sortOrder.equals(keyColumn)) {
+            throw new IllegalArgumentException("A page is sorted by " + keyColumn + ":" + uri);
+        }
+        try {
+            /* validated here, the limit is put into the SQL as is */
+            if (afterKey != null) Long.parseLong(afterKey);
+            if (limit != null) Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page:" + uri, e);
+        }
+        if (afterKey != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, keyColumn + " > ?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[]{afterKey});
+        }
+        return db.query(tables, projection, selection, selectionArgs, null, null, keyColumn,
+                limit);
+    }
+
     /**
      * Insert an item into the movies database.
      *
@@ -195,15 +573,30 @@ public class MoviesProvider extends ContentProvider {
                 break;
             }
 
+            case CODE_FAVOURITES: {
+                /* favouriting a movie again replaces its snapshot */
+                long id = db.insertWithOnConflict(FavouritesEntry.TABLE_NAME,
+                        null,
+                        contentValues,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+                if (id != -1) {
+                    uriToRet = FavouritesEntry.buildFavouriteUriWithId(
+                            contentValues.getAsString(FavouritesEntry.MOVIE_ID));
+                } else {
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                }
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return uriToRet;
     }
 
     /**
-     * Update the record for a particular item.
+     * Update the record for a particular item, or the records matching the selection.
      *
      * @param uri           The URI specifying the the location for the item to be inserted.
      * @param contentValues Set of column_name/value pairs to add to the database.
@@ -220,6 +613,14 @@ public class MoviesProvider extends ContentProvider {
         SQLiteDatabase db = mMoviesDbHelper.getWritableDatabase();
         int id;
         switch (sUriMatcher.match(uri)) {
+            case CODE_MOVIES: {
+                id = db.update(MoviesEntry.TABLE_NAME,
+                        contentValues,
+                        s,
+                        strings);
+                break;
+            }
+
             case CODE_MOVIE_WITH_ID: {
                 id = db.update(MoviesEntry.TABLE_NAME,
                         contentValues,
@@ -231,10 +632,20 @@ public class MoviesProvider extends ContentProvider {
                 break;
             }
 
+            case CODE_FAVOURITE_WITH_ID: {
+                id = db.update(FavouritesEntry.TABLE_NAME,
+                        contentValues,
+                        FavouritesEntry.MOVIE_ID + " =? ",
+                        new String[]{uri.getLastPathSegment()});
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (id > 0) {
+            notifyChange(uri);
+        }
         return id;
     }
 
@@ -258,18 +669,53 @@ public class MoviesProvider extends ContentProvider {
                 *  Setting s = 1 will delete all the rows and return the numOfRows deleted.
                 */
                 if (null == s) s = "1";
-                numOfItemsDeleted = db.delete(MoviesEntry.TABLE_NAME,
-                        s,
-                        strings);
+                db.beginTransaction();
+                try {
+                    numOfItemsDeleted = db.delete(MoviesEntry.TABLE_NAME,
+                            s,
+                            strings);
+                    /* the deleted movies leave their categories */
+                    db.delete(MovieCategoryEntry.TABLE_NAME,
+                            MovieCategoryEntry.MOVIE_ID + " NOT IN (SELECT "
+                                    + MoviesEntry.MOVIE_ID + " FROM " + MoviesEntry.TABLE_NAME + ")",
+                            null);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             }
 
             case CODE_MOVIE_WITH_ID: {
                 String movieId = uri.getLastPathSegment();
                 String[] selectionArgs = {movieId};
-                numOfItemsDeleted = db.delete(MoviesEntry.TABLE_NAME,
-                        MoviesEntry.MOVIE_ID + " =? ",
-                        selectionArgs);
+                db.beginTransaction();
+                try {
+                    numOfItemsDeleted = db.delete(MoviesEntry.TABLE_NAME,
+                            MoviesEntry.MOVIE_ID + " =? ",
+                            selectionArgs);
+                    db.delete(MovieCategoryEntry.TABLE_NAME,
+                            MovieCategoryEntry.MOVIE_ID + " =? ",
+                            selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                break;
+            }
+
+            case CODE_FAVOURITES: {
+                if (null == s) s = "1";
+                numOfItemsDeleted = db.delete(FavouritesEntry.TABLE_NAME,
+                        s,
+                        strings);
+                break;
+            }
+
+            case CODE_FAVOURITE_WITH_ID: {
+                numOfItemsDeleted = db.delete(FavouritesEntry.TABLE_NAME,
+                        FavouritesEntry.MOVIE_ID + " =? ",
+                        new String[]{uri.getLastPathSegment()});
                 break;
             }
 
@@ -279,7 +725,7 @@ public class MoviesProvider extends ContentProvider {
 
         /* Notify the data change so the cursor gets notified to update the UI. */
         if (numOfItemsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return numOfItemsDeleted;
     }
@@ -299,20 +745,283 @@ public class MoviesProvider extends ContentProvider {
                         MoviesContract.PATH_MOVIES;
             }
 
+            case CODE_MOVIES_IN_CATEGORY: {
+                return "vnd.android.cursor.dir" + "/" + MoviesContract.CONTENT_AUTHORITY + "/" +
+                        MoviesContract.PATH_MOVIES;
+            }
+
             case CODE_MOVIE_WITH_ID: {
                 return "vnd.android.cursor.item" + "/" + MoviesContract.CONTENT_AUTHORITY + "/" +
                         MoviesContract.PATH_MOVIES;
             }
 
+            case CODE_FAVOURITES: {
+                return "vnd.android.cursor.dir" + "/" + MoviesContract.CONTENT_AUTHORITY + "/" +
+                        MoviesContract.PATH_FAVOURITES;
+            }
+
+            case CODE_FAVOURITE_WITH_ID: {
+                return "vnd.android.cursor.item" + "/" + MoviesContract.CONTENT_AUTHORITY + "/" +
+                        MoviesContract.PATH_FAVOURITES;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown Uri:" + uri);
         }
     }
 
+    /**
+     * Applies the operations in a single transaction: either all of them are applied or, if one
+     * fails, none. The Uris the operations change are notified once, after the commit, rather
+     * than by every operation.
+     *
+     * @param operations The operations to apply.
+     * @return The results of the operations, in order.
+     * @throws OperationApplicationException If an operation fails, the batch is rolled back.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mMoviesDbHelper.getWritableDatabase();
+        Set<Uri> changedUris = new LinkedHashSet<>();
+        ContentProviderResult[] results;
+        mBatchChangedUris.set(changedUris);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChangedUris.remove();
+        }
+
+        for (Uri uri : changedUris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        Log.d(TAG, "applyBatch: " + operations.size() + " operations, "
+                + changedUris.size() + " Uri(s) notified");
+        return results;
+    }
+
+    /**
+     * Notifies the change of the Uri, or defers it to the commit of the batch being applied.
+     *
+     * @param uri The changed Uri.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> changedUris = mBatchChangedUris.get();
+        if (changedUris != null) {
+            changedUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Handles the sync brackets, see {@link MoviesContract#METHOD_BEGIN_SYNC} and
+     * {@link MoviesContract#METHOD_END_SYNC}.
+     *
+     * @param method The method name.
+     * @param arg    Unused.
+     * @param extras Unused.
+     * @return Always null.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        switch (method) {
+            case MoviesContract.METHOD_BEGIN_SYNC:
+                beginSync();
+                return null;
+
+            case MoviesContract.METHOD_END_SYNC:
+                endSync();
+                return null;
+
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * Turns the automatic checkpoints off for the duration of the sync. Otherwise the commit
+     * that crosses the threshold copies the WAL back into the database while the sync waits.
+     */
+    private synchronized void beginSync() {
+        if (mSyncsInProgress++ > 0) return;
+
+        SQLiteDatabase db = mMoviesDbHelper.getWritableDatabase();
+        mWalAutoCheckpointPages = executePragmaOnPrimaryConnection(db,
+                "PRAGMA wal_autocheckpoint");
+        executePragmaOnPrimaryConnection(db, "PRAGMA wal_autocheckpoint=0");
+    }
+
+    /**
+     * Restores the automatic checkpoints once the last sync is done and checkpoints what the
+     * syncs wrote. The checkpoint is a passive one, it never waits for the readers and stops
+     * short of the frames they still use, the next checkpoint picks those up.
+     */
+    private synchronized void endSync() {
+        if (mSyncsInProgress == 0 || --mSyncsInProgress > 0) return;
+
+        SQLiteDatabase db = mMoviesDbHelper.getWritableDatabase();
+        executePragmaOnPrimaryConnection(db,
+                "PRAGMA wal_autocheckpoint=" + mWalAutoCheckpointPages);
+        /* returns busy, frames in the WAL and frames checkpointed. Not a read only statement,
+         * so it runs on the primary connection, and outside of a transaction as it must. */
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            if (cursor.moveToFirst()) {
+                Log.d(TAG, "endSync: checkpointed " + cursor.getInt(2) + " of "
+                        + cursor.getInt(1) + " WAL frames");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return The automatic checkpoint interval(pages) of the connection the writes commit on.
+     */
+    long getWalAutoCheckpointPages() {
+        return executePragmaOnPrimaryConnection(mMoviesDbHelper.getWritableDatabase(),
+                "PRAGMA wal_autocheckpoint");
+    }
+
+    /**
+     * Executes the pragma on the primary connection, i.e. the one the writes commit on. The
+     * wal_autocheckpoint pragma is a read only statement as far as SQLite is concerned, so
+     * outside of a transaction the connection pool may run it on a secondary connection, which
+     * never writes. The setting belongs to the connection and the pool keeps the primary one
+     * open for as long as the database is.
+     *
+     * @param db     The database.
+     * @param pragma The pragma statement, returning a single number.
+     * @return The number returned by the pragma.
+     */
+    private static long executePragmaOnPrimaryConnection(SQLiteDatabase db, String pragma) {
+        /* a transaction holds the primary connection for the session */
+        db.beginTransactionNonExclusive();
+        try {
+            long value = DatabaseUtils.longForQuery(db, pragma, null);
+            db.setTransactionSuccessful();
+            return value;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Binds the values of the columns to the statement, in the order of the columns.
+     *
+     * @param statement The compiled statement.
+     * @param columns   The columns of the statement, in the order of its placeholders.
+     * @param values    The values to bind.
+     */
+    private static void bindValues(SQLiteStatement statement, String[] columns,
+                                   ContentValues values) {
+        statement.clearBindings();
+        for (int i = 0; i < columns.length; i++) {
+            /* bind indices are 1 based */
+            int index = i + 1;
+            Object value = values.get(columns[i]);
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Double || value instanceof Float) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+    }
+
+    /**
+     * @param count Number of placeholders.
+     * @return The comma separated placeholders, e.g. "?,?,?".
+     */
+    private static String makePlaceholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ",?");
+        }
+        return builder.toString();
+    }
+
     @Override
     public void shutdown() {
         /* Always close the DB helper */
         mMoviesDbHelper.close();
         super.shutdown();
     }
+
+    /**
+     * The compiled UPDATE and INSERT merging rows with the same set of columns into the movies
+     * table.
+     */
+    private static class MergeStatements {
+        /* the columns bound to the INSERT */
+        private final String[] mColumns;
+        private final SQLiteStatement mInsert;
+        /* the columns bound to the UPDATE, i.e. the columns to set followed by the movie ID */
+        private final String[] mUpdateColumns;
+        /* null if the rows have no movie ID or nothing else to update */
+        private final SQLiteStatement mUpdate;
+
+        MergeStatements(SQLiteDatabase db, String[] columns) {
+            mColumns = columns;
+            mInsert = db.compileStatement("INSERT INTO " + MoviesEntry.TABLE_NAME
+                    + " (" + TextUtils.join(",", columns) + ") VALUES ("
+                    + makePlaceholders(columns.length) + ")");
+
+            List<String> updateColumns = new ArrayList<>(Arrays.asList(columns));
+            if (updateColumns.remove(MoviesEntry.MOVIE_ID) && !updateColumns.isEmpty()) {
+                StringBuilder sql = new StringBuilder("UPDATE ")
+                        .append(MoviesEntry.TABLE_NAME)
+                        .append(" SET ");
+                for (int i = 0; i < updateColumns.size(); i++) {
+                    sql.append(i == 0 ? "" : ",").append(updateColumns.get(i)).append("=?");
+                }
+                sql.append(" WHERE ").append(MoviesEntry.MOVIE_ID).append("=?");
+                updateColumns.add(MoviesEntry.MOVIE_ID);
+                mUpdateColumns = updateColumns.toArray(new String[updateColumns.size()]);
+                mUpdate = db.compileStatement(sql.toString());
+            } else {
+                mUpdateColumns = null;
+                mUpdate = null;
+            }
+        }
+
+        /**
+         * @return TRUE if the values were merged into the stored row of the movie.
+         */
+        boolean update(ContentValues values) {
+            if (mUpdate == null) return false;
+            bindValues(mUpdate, mUpdateColumns, values);
+            return mUpdate.executeUpdateDelete() > 0;
+        }
+
+        /**
+         * @return The row ID of the inserted row, or -1.
+         */
+        long insert(ContentValues values) {
+            bindValues(mInsert, mColumns, values);
+            return mInsert.executeInsert();
+        }
+
+        void close() {
+            mInsert.close();
+            if (mUpdate != null) {
+                mUpdate.close();
+            }
+        }
+    }
 }
@@ -20,6 +20,11 @@ import android.os.Bundle;
 import android.support.v4.content.AsyncTaskLoader;
 import android.util.Log;
 
+import com.sriky.popflix.network.CachingTransport;
+import com.sriky.popflix.network.CancellationToken;
+import com.sriky.popflix.network.HttpRequest;
+import com.sriky.popflix.network.HttpResponse;
+import com.sriky.popflix.network.SingleFlight;
 import com.sriky.popflix.utilities.MovieDataUtils;
 import com.sriky.popflix.utilities.NetworkUtils;
 
@@ -43,6 +48,19 @@ public class FetchMovieDataTaskLoader extends AsyncTaskLoader<String> {
 
     private static final String TAG = FetchMovieDataTaskLoader.class.getSimpleName();
 
+    /* fetches in flight across all loader instances, keyed by URL */
+    private static final SingleFlight<FetchResult> sFetchFlights = new SingleFlight<>();
+
+    /**
+     * Result of a fetch, shared by the loaders that joined it.
+     */
+    private static class FetchResult {
+        /* the response body, null if the fetch failed */
+        String body;
+        /* TRUE when the body was served from the disk cache */
+        boolean fromCache;
+    }
+
     /* Handle to the listener */
     private FetchMovieDataTaskListener mFetchMovieDataTaskListener;
 
@@ -53,6 +71,12 @@ public class FetchMovieDataTaskLoader extends AsyncTaskLoader<String> {
        backgrouded etc. */
     private String mResult;
 
+    /* whether mResult was served from the disk cache */
+    private volatile boolean mResultFromCache;
+
+    /* stops waiting for the fetch in flight when the load is abandoned, guarded by this */
+    private CancellationToken mCancellationToken;
+
     public FetchMovieDataTaskLoader(Context context, Bundle loaderArgs) {
         super(context);
         mLoaderArgs = loaderArgs;
@@ -76,20 +100,87 @@ public class FetchMovieDataTaskLoader extends AsyncTaskLoader<String> {
 
     @Override
     public String loadInBackground() {
+        final CancellationToken cancellationToken;
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) return null;
+            mCancellationToken = new CancellationToken();
+            cancellationToken = mCancellationToken;
+        }
+
         String result = null;
         if (mLoaderArgs != null && mLoaderArgs.containsKey(MovieDataUtils.FETCH_MOVIE_DATA_URL_KEY)) {
             String urlStr = mLoaderArgs.getString(MovieDataUtils.FETCH_MOVIE_DATA_URL_KEY);
             Log.d(TAG, "loadInBackground: URL = " + urlStr);
             try {
-                URL url = new URL(urlStr);
-                result = NetworkUtils.getStringResponseFromHttpUrl(url);
+                final URL url = new URL(urlStr);
+                /* loaders recreated on rotation join the fetch that is already in flight. The
+                 * fetch has its own token, abandoning this load only stops our wait unless no
+                 * other loader waits for the fetch. */
+                FetchResult fetchResult = sFetchFlights.execute(urlStr, cancellationToken,
+                        new SingleFlight.Call<FetchResult>() {
+                    @Override
+                    public FetchResult call(CancellationToken sharedToken) throws IOException {
+                        HttpRequest request = new HttpRequest(url);
+                        /* repeat visits to a movie are served from the disk cache */
+                        request.setCacheTtlMillis(NetworkUtils.getCacheTtlMillis(url));
+                        /* the user is waiting on this one, it goes ahead of any sync */
+                        request.setPriority(HttpRequest.Priority.DETAIL);
+                        request.setHedged(true);
+                        request.setCancellationToken(sharedToken);
+                        HttpResponse response = NetworkUtils.getHttpTransport(getContext())
+                                .execute(request);
+                        FetchResult fetched = new FetchResult();
+                        if (!response.isSuccessful()) {
+                            /* an error body isn't the movie's details */
+                            Log.e(TAG, "loadInBackground: status code = "
+                                    + response.getStatusCode());
+                            response.close();
+                            return fetched;
+                        }
+                        fetched.fromCache = CachingTransport.isCacheHit(response);
+                        fetched.body = response.getBodyAsString();
+                        return fetched;
+                    }
+                });
+                result = fetchResult.body;
+                mResultFromCache = fetchResult.fromCache;
             } catch (IOException e) {
                 e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    mCancellationToken = null;
+                }
             }
         }
         return result;
     }
 
+    /**
+     * Called when the load is abandoned, e.g. the user left the details screen. Stops waiting
+     * for the fetch in flight, and closes its socket rather than letting it run to the read
+     * timeout if no other loader waits for it.
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mCancellationToken != null) {
+                Log.d(TAG, "cancelLoadInBackground: cancelling the fetch in flight");
+                mCancellationToken.cancel();
+            }
+        }
+    }
+
+    /**
+     * Returns whether the delivered result was served from the disk cache. A cached body may
+     * be older than what the sync has stored since, so it shouldn't be written back.
+     *
+     * @return TRUE if the result is a cache hit.
+     */
+    public boolean isResultFromCache() {
+        return mResultFromCache;
+    }
+
     @Override
     public void deliverResult(String data) {
         Log.d(TAG, "deliverResult()");
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link InputStream} that fails with a {@link ResponseTooLargeException} as soon as more than
+ * the allowed number of bytes have been read, instead of letting a runaway body fill the heap.
+ */
+
+public class BoundedInputStream extends FilterInputStream {
+    private final long mMaxBytes;
+    private long mBytesRead;
+
+    /**
+     * @param in       The stream to read from.
+     * @param maxBytes Maximum number of bytes that may be read.
+     */
+    public BoundedInputStream(InputStream in, long maxBytes) {
+        super(in);
+        mMaxBytes = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            count(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        /* reading one byte past the limit is enough to tell the body is too large */
+        long remaining = mMaxBytes - mBytesRead + 1;
+        int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+        if (read > 0) {
+            count(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long skipped = super.skip(byteCount);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        /* a reset would make the count meaningless */
+        return false;
+    }
+
+    private void count(long bytes) throws ResponseTooLargeException {
+        mBytesRead += bytes;
+        if (mBytesRead > mMaxBytes) {
+            throw new ResponseTooLargeException("Response body is larger than " + mMaxBytes
+                    + " bytes");
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import java.util.ArrayDeque;
+
+/**
+ * Process wide pool of the scratch buffers used to copy response bodies, so every response
+ * doesn't allocate(and garbage collect) its own. Buffers must be handed back once the caller
+ * is done with them and never used after that.
+ */
+
+public final class BufferPool {
+    /* size of every pooled buffer */
+    public static final int BUFFER_SIZE = 8192;
+    /* buffers kept around per type, matches the number of requests in flight */
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    private static final ArrayDeque<byte[]> sByteBuffers = new ArrayDeque<>();
+    private static final ArrayDeque<char[]> sCharBuffers = new ArrayDeque<>();
+
+    private BufferPool() {
+    }
+
+    /**
+     * @return A byte buffer of {@link #BUFFER_SIZE} bytes.
+     */
+    public static byte[] acquireBytes() {
+        synchronized (sByteBuffers) {
+            byte[] buffer = sByteBuffers.poll();
+            return buffer != null ? buffer : new byte[BUFFER_SIZE];
+        }
+    }
+
+    /**
+     * Hands the buffer back to the pool.
+     *
+     * @param buffer A buffer obtained from {@link #acquireBytes()}.
+     */
+    public static void releaseBytes(byte[] buffer) {
+        synchronized (sByteBuffers) {
+            if (sByteBuffers.size() < MAX_POOLED_BUFFERS) {
+                sByteBuffers.push(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return A char buffer of {@link #BUFFER_SIZE} chars.
+     */
+    public static char[] acquireChars() {
+        synchronized (sCharBuffers) {
+            char[] buffer = sCharBuffers.poll();
+            return buffer != null ? buffer : new char[BUFFER_SIZE];
+        }
+    }
+
+    /**
+     * Hands the buffer back to the pool.
+     *
+     * @param buffer A buffer obtained from {@link #acquireChars()}.
+     */
+    public static void releaseChars(char[] buffer) {
+        synchronized (sCharBuffers) {
+            if (sCharBuffers.size() < MAX_POOLED_BUFFERS) {
+                sCharBuffers.push(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+
+/**
+ * {@link HttpTransport} decorator that serves requests with a cache time to live from a
+ * {@link DiskResponseCache}. Fresh entries are returned without touching the network, misses
+ * go to the delegate and successful responses are stored. When the delegate fails, e.g. the
+ * device is offline, an expired entry is served rather than nothing. Requests without a time
+ * to live (e.g. the list syncs, which revalidate instead) pass straight through.
+ */
+
+public class CachingTransport implements HttpTransport {
+    private static final String TAG = CachingTransport.class.getSimpleName();
+
+    /* marks the responses served from the cache, see isCacheHit() */
+    private static final String HEADER_CACHE_HIT = "X-Cache-Hit";
+
+    private final DiskResponseCache mCache;
+    private final HttpTransport mDelegate;
+
+    /**
+     * @param cache    Where the response bodies are stored.
+     * @param delegate The transport that performs the requests on a cache miss.
+     */
+    public CachingTransport(DiskResponseCache cache, HttpTransport delegate) {
+        mCache = cache;
+        mDelegate = delegate;
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        long ttlMillis = request.getCacheTtlMillis();
+        if (ttlMillis <= 0) {
+            return mDelegate.execute(request);
+        }
+
+        String key = request.getUrl().toString();
+        byte[] cachedBody = mCache.get(key, ttlMillis);
+        if (cachedBody != null) {
+            Log.d(TAG, "execute: cache hit for " + request);
+            return createCacheHit(cachedBody);
+        }
+
+        HttpResponse response;
+        try {
+            response = mDelegate.execute(request);
+        } catch (IOException e) {
+            /* offline or the host is down, an expired entry beats no data at all. Unless the
+             * caller cancelled, then nobody wants the data. */
+            CancellationToken cancellationToken = request.getCancellationToken();
+            byte[] staleBody = cancellationToken != null && cancellationToken.isCanceled()
+                    ? null
+                    : mCache.get(key, Long.MAX_VALUE);
+            if (staleBody == null) throw e;
+            Log.d(TAG, "execute: " + e.getMessage() + ", serving the stale entry for "
+                    + request);
+            return createCacheHit(staleBody);
+        }
+        if (!response.isSuccessful() || response.getBody() == null) {
+            return response;
+        }
+
+        byte[] body = readFully(response);
+        mCache.put(key, body);
+        return new HttpResponse(response.getStatusCode(), response.getHeaders(),
+                new ByteArrayInputStream(body));
+    }
+
+    /**
+     * Returns whether the response was served from the cache rather than the network. Its body
+     * may be as old as the time to live of the request, or older when the network failed.
+     *
+     * @param response The response.
+     * @return TRUE if the response is a cache hit.
+     */
+    public static boolean isCacheHit(HttpResponse response) {
+        return response.getHeader(HEADER_CACHE_HIT) != null;
+    }
+
+    private static HttpResponse createCacheHit(byte[] body) {
+        return new HttpResponse(HttpURLConnection.HTTP_OK,
+                Collections.singletonMap(HEADER_CACHE_HIT, Collections.singletonList("1")),
+                new ByteArrayInputStream(body));
+    }
+
+    /**
+     * Reads the whole body and closes the response.
+     */
+    static byte[] readFully(HttpResponse response) throws IOException {
+        byte[] buffer = BufferPool.acquireBytes();
+        try {
+            InputStream in = response.getBody();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(buffer.length);
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            BufferPool.releaseBytes(buffer);
+            response.close();
+        }
+    }
+}
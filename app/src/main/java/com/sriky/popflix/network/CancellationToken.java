@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.os.SystemClock;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lets the owner of some work(a job, a loader) cancel the requests made on its behalf. Unlike
+ * {@link android.os.CancellationSignal} it supports several listeners, one per request in
+ * flight, since a sync fetches its pages concurrently.
+ * <p>
+ * Cancelling closes the sockets of the requests in flight, wakes up requests waiting for a
+ * slot, a rate limit token or a retry, and fails them with an {@link InterruptedIOException}.
+ * </p>
+ */
+
+public class CancellationToken {
+
+    /**
+     * Called once when the token is cancelled, on the thread calling {@link #cancel()}.
+     */
+    public interface OnCancelListener {
+        void onCancel();
+    }
+
+    private final List<OnCancelListener> mListeners = new ArrayList<>();
+    private boolean mCanceled;
+
+    /**
+     * Cancels the work and notifies the registered listeners. Calling it again has no effect.
+     */
+    public void cancel() {
+        List<OnCancelListener> listeners;
+        synchronized (this) {
+            if (mCanceled) return;
+            mCanceled = true;
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+            /* wakes up the threads in sleep() */
+            notifyAll();
+        }
+        for (OnCancelListener listener : listeners) {
+            listener.onCancel();
+        }
+    }
+
+    public synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * @throws InterruptedIOException If the token has been cancelled.
+     */
+    public void throwIfCanceled() throws InterruptedIOException {
+        if (isCanceled()) {
+            throw new InterruptedIOException("Canceled");
+        }
+    }
+
+    /**
+     * Registers a listener, which is called right away if the token is already cancelled.
+     *
+     * @param listener The listener to call on cancellation.
+     */
+    public void addListener(OnCancelListener listener) {
+        synchronized (this) {
+            if (!mCanceled) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.onCancel();
+    }
+
+    /**
+     * Unregisters a listener, e.g. once the request it cancels has completed.
+     *
+     * @param listener The listener to remove.
+     */
+    public synchronized void removeListener(OnCancelListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Sleeps for the supplied duration unless the token is cancelled first.
+     *
+     * @param millis The duration to sleep for.
+     * @throws InterruptedIOException If the token was cancelled or the thread interrupted.
+     */
+    public synchronized void sleep(long millis) throws InterruptedIOException {
+        long deadline = SystemClock.elapsedRealtime() + millis;
+        try {
+            long remaining = millis;
+            while (!mCanceled && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - SystemClock.elapsedRealtime();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sleeping");
+        }
+        throwIfCanceled();
+    }
+
+    /**
+     * Sleeps for the supplied duration, or until the token is cancelled if there is one.
+     *
+     * @param token  The token to watch, may be null.
+     * @param millis The duration to sleep for.
+     * @throws InterruptedIOException If the token was cancelled or the thread interrupted.
+     */
+    public static void sleep(CancellationToken token, long millis) throws InterruptedIOException {
+        if (token != null) {
+            token.sleep(millis);
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sleeping");
+        }
+    }
+}
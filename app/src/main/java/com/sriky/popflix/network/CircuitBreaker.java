@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.os.SystemClock;
+
+/**
+ * Thread safe circuit breaker for a single host.
+ * <p>
+ * CLOSED: requests go through, consecutive failures are counted. Once they reach the threshold
+ * the breaker opens.<br>
+ * OPEN: requests fail fast until the open period has passed, then the breaker goes half-open.
+ * The open period doubles every time a probe fails, up to a maximum.<br>
+ * HALF_OPEN: a single probe request is let through. Its success closes the breaker, its
+ * failure opens it again.
+ * </p>
+ */
+
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+    private final long mMinOpenMillis;
+    private final long mMaxOpenMillis;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    /* how long the breaker stays open the next time it opens */
+    private long mOpenMillis;
+    /* elapsed realtime millis at which an open breaker lets a probe through */
+    private long mRetryAtMillis;
+    /* TRUE while the half-open probe is in flight */
+    private boolean mProbeInFlight;
+
+    /**
+     * @param failureThreshold Consecutive failures that open the breaker.
+     * @param minOpenMillis    How long the breaker stays open the first time.
+     * @param maxOpenMillis    Upper bound of the open period after repeated failed probes.
+     */
+    public CircuitBreaker(int failureThreshold, long minOpenMillis, long maxOpenMillis) {
+        mFailureThreshold = failureThreshold;
+        mMinOpenMillis = minOpenMillis;
+        mMaxOpenMillis = maxOpenMillis;
+        mOpenMillis = minOpenMillis;
+    }
+
+    /**
+     * Decides whether a request may be sent. A TRUE result must be followed by a call to
+     * either {@link #onSuccess()} or {@link #onFailure()}, except for requests that were
+     * cancelled or failed for reasons unrelated to the host, which call {@link #onAbandoned()}.
+     *
+     * @return TRUE if the request may be sent, FALSE if it should fail fast.
+     */
+    public synchronized boolean allowRequest() {
+        switch (mState) {
+            case CLOSED:
+                return true;
+
+            case OPEN:
+                if (SystemClock.elapsedRealtime() < mRetryAtMillis) return false;
+                mState = State.HALF_OPEN;
+                mProbeInFlight = false;
+                /* fall through, this request can be the probe */
+
+            case HALF_OPEN:
+                if (mProbeInFlight) return false;
+                mProbeInFlight = true;
+                return true;
+
+            default:
+                throw new IllegalStateException("Unknown state: " + mState);
+        }
+    }
+
+    public synchronized void onSuccess() {
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+        mOpenMillis = mMinOpenMillis;
+        mProbeInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        mConsecutiveFailures++;
+        if (mState == State.HALF_OPEN) {
+            /* the probe failed, stay away for longer this time */
+            mOpenMillis = Math.min(mMaxOpenMillis, mOpenMillis * 2);
+            open();
+        } else if (mState == State.CLOSED && mConsecutiveFailures >= mFailureThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * Called when an allowed request was cancelled or failed for a reason that says nothing
+     * about the host, e.g. its body was over the size cap.
+     */
+    public synchronized void onAbandoned() {
+        mProbeInFlight = false;
+    }
+
+    /**
+     * Lets the next request probe the host right away, e.g. when the device gets connected
+     * again. Does nothing if the breaker is closed.
+     */
+    public synchronized void probeNow() {
+        if (mState == State.OPEN) {
+            mRetryAtMillis = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    private void open() {
+        mState = State.OPEN;
+        mProbeInFlight = false;
+        mRetryAtMillis = SystemClock.elapsedRealtime() + mOpenMillis;
+    }
+}
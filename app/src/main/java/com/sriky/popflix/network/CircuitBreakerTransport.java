@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link HttpTransport} decorator that fails fast with a {@link CircuitOpenException} instead of
+ * waiting out connect timeouts when a request can't succeed:
+ * <ul>
+ * <li>the device has no connectivity, or</li>
+ * <li>the {@link CircuitBreaker} of the request's host is open after repeated failures(I/O
+ * errors and 5xx responses).</li>
+ * </ul>
+ * Coming back online lets the open breakers probe their host right away.
+ */
+
+public class CircuitBreakerTransport implements HttpTransport {
+    private static final String TAG = CircuitBreakerTransport.class.getSimpleName();
+
+    private final HttpTransport mDelegate;
+    private final ConnectivityManager mConnectivityManager;
+    private final int mFailureThreshold;
+    private final long mMinOpenMillis;
+    private final long mMaxOpenMillis;
+
+    /* one breaker per host, guarded by itself */
+    private final Map<String, CircuitBreaker> mBreakers = new HashMap<>();
+    /* connectivity seen by the previous request */
+    private volatile boolean mWasOffline;
+
+    /**
+     * @param context          Used to query the connectivity state.
+     * @param delegate         The transport that performs the requests.
+     * @param failureThreshold Consecutive failures that open a host's breaker.
+     * @param minOpenMillis    How long a breaker stays open the first time.
+     * @param maxOpenMillis    Upper bound of the open period after repeated failed probes.
+     */
+    public CircuitBreakerTransport(Context context, HttpTransport delegate, int failureThreshold,
+                                   long minOpenMillis, long maxOpenMillis) {
+        mDelegate = delegate;
+        mConnectivityManager = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        mFailureThreshold = failureThreshold;
+        mMinOpenMillis = minOpenMillis;
+        mMaxOpenMillis = maxOpenMillis;
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        if (!isOnline()) {
+            mWasOffline = true;
+            throw new CircuitOpenException("Offline, not sending " + request);
+        }
+        if (mWasOffline) {
+            mWasOffline = false;
+            Log.d(TAG, "execute: back online, probing the open circuits");
+            synchronized (mBreakers) {
+                for (CircuitBreaker breaker : mBreakers.values()) {
+                    breaker.probeNow();
+                }
+            }
+        }
+
+        String host = request.getUrl().getHost();
+        CircuitBreaker breaker = getBreaker(host);
+        if (!breaker.allowRequest()) {
+            throw new CircuitOpenException("Circuit to " + host + " is open, not sending "
+                    + request);
+        }
+
+        HttpResponse response;
+        try {
+            response = mDelegate.execute(request);
+        } catch (IOException e) {
+            /* a cancel or a body over the size cap says nothing about the host */
+            CancellationToken cancellationToken = request.getCancellationToken();
+            if ((cancellationToken != null && cancellationToken.isCanceled())
+                    || e instanceof ResponseTooLargeException) {
+                breaker.onAbandoned();
+            } else {
+                onFailure(host, breaker);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            /* a bug rather than the host, but the probe mustn't stay in flight forever */
+            breaker.onAbandoned();
+            throw e;
+        }
+
+        if (response.getStatusCode() >= 500) {
+            onFailure(host, breaker);
+        } else {
+            breaker.onSuccess();
+        }
+        return response;
+    }
+
+    /**
+     * @return TRUE if the device has a connected network, or the state can't be queried.
+     */
+    private boolean isOnline() {
+        if (mConnectivityManager == null) return true;
+        NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    private CircuitBreaker getBreaker(String host) {
+        synchronized (mBreakers) {
+            CircuitBreaker breaker = mBreakers.get(host);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(mFailureThreshold, mMinOpenMillis, mMaxOpenMillis);
+                mBreakers.put(host, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    private static void onFailure(String host, CircuitBreaker breaker) {
+        breaker.onFailure();
+        if (breaker.getState() == CircuitBreaker.State.OPEN) {
+            Log.w(TAG, "onFailure: circuit to " + host + " is open");
+        }
+    }
+}
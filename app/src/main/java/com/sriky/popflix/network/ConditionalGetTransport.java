@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * {@link HttpTransport} decorator that revalidates requests marked as conditional
+ * (see {@link HttpRequest#setConditional(boolean)}).
+ * <p>
+ * The ETag and Last-Modified validators are stored per URL in {@link SharedPreferences}, so
+ * they survive the process being killed between two periodic syncs. The next conditional
+ * request for the same URL sends them back as If-None-Match and If-Modified-Since, and the
+ * caller can check {@link HttpResponse#isNotModified()}.
+ * </p>
+ * <p>
+ * The transport doesn't store the validators of the responses it returns: a 304 is only right
+ * if the previous body made it into the database. The caller stores them with
+ * {@link #storeValidators(Context, HttpRequest, HttpResponse)} once it has.
+ * </p>
+ */
+
+public class ConditionalGetTransport implements HttpTransport {
+    private static final String TAG = ConditionalGetTransport.class.getSimpleName();
+
+    private static final String PREFERENCES_NAME = "http_validators";
+    private static final String KEY_SUFFIX_ETAG = ".etag";
+    private static final String KEY_SUFFIX_LAST_MODIFIED = ".last_modified";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final HttpTransport mDelegate;
+    private final SharedPreferences mValidators;
+
+    public ConditionalGetTransport(Context context, HttpTransport delegate) {
+        mDelegate = delegate;
+        mValidators = getValidators(context);
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        if (!request.isConditional()) {
+            return mDelegate.execute(request);
+        }
+
+        String key = request.getUrl().toString();
+        String etag = mValidators.getString(key + KEY_SUFFIX_ETAG, null);
+        String lastModified = mValidators.getString(key + KEY_SUFFIX_LAST_MODIFIED, null);
+        if (etag != null) {
+            request.setHeader(HEADER_IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            request.setHeader(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+
+        HttpResponse response = mDelegate.execute(request);
+        if (response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            Log.d(TAG, "execute: not modified " + request);
+        }
+        return response;
+    }
+
+    /**
+     * Stores the validators of a successful response, so the next conditional request for the
+     * same URL is revalidated against it. Call it only once the body has been stored, otherwise
+     * the next request may be answered with 304 for data the caller doesn't have.
+     *
+     * @param context  Used to access the validator store.
+     * @param request  The request of the response.
+     * @param response The response, its body may be closed already.
+     */
+    public static void storeValidators(Context context, HttpRequest request,
+                                       HttpResponse response) {
+        if (!response.isSuccessful()) return;
+
+        String key = request.getUrl().toString();
+        getValidators(context).edit()
+                .putString(key + KEY_SUFFIX_ETAG, response.getHeader(HEADER_ETAG))
+                .putString(key + KEY_SUFFIX_LAST_MODIFIED,
+                        response.getHeader(HEADER_LAST_MODIFIED))
+                .apply();
+    }
+
+    /**
+     * Forgets all the stored validators, so the next requests are unconditional.
+     *
+     * @param context Used to access the validator store.
+     */
+    public static void clearValidators(Context context) {
+        getValidators(context).edit()
+                .clear()
+                .apply();
+    }
+
+    private static SharedPreferences getValidators(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+}
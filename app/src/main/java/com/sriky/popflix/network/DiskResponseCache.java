@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded cache of response bodies stored on disk, keyed by URL.
+ * <p>
+ * Each entry is a file named after the MD5 of its key, holding the time it was stored followed
+ * by the body. Entries are evicted least recently used first once the total size goes over
+ * the byte budget. The time to live isn't stored with the entry but supplied on lookup, so it
+ * can differ per endpoint, or be ignored to fall back on stale data. The access order survives
+ * restarts through the files' last modified time.
+ * </p>
+ */
+
+public class DiskResponseCache {
+    private static final String TAG = DiskResponseCache.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    /* every entry starts with the time it was stored, as a long */
+    private static final int ENTRY_HEADER_BYTES = 8;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /* file name -> file size, in access order (least recently used first) */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+    private boolean mInitialized;
+
+    /**
+     * @param directory Directory holding the entries, created when needed.
+     * @param maxBytes  Byte budget of all the entries together.
+     */
+    public DiskResponseCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the body stored for the key if it is younger than the supplied time to live.
+     * Expired entries are not removed, a later lookup with a longer time to live may still
+     * return them.
+     *
+     * @param key       The cache key, usually the request URL.
+     * @param ttlMillis How long an entry stays fresh after it was stored.
+     * @return The stored body or null if there is no fresh entry.
+     */
+    public synchronized byte[] get(String key, long ttlMillis) {
+        initialize();
+        String fileName = getFileName(key);
+        if (mEntries.get(fileName) == null) return null;
+
+        File file = new File(mDirectory, fileName);
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                long storedAtMillis = in.readLong();
+                long ageMillis = System.currentTimeMillis() - storedAtMillis;
+                if (ageMillis < 0 || ageMillis >= ttlMillis) {
+                    /* kept, it can still stand in when the network fails. Eviction reclaims
+                     * it eventually. */
+                    Log.d(TAG, "get: entry expired for " + key);
+                    return null;
+                }
+                byte[] body = new byte[(int) (file.length() - ENTRY_HEADER_BYTES)];
+                in.readFully(body);
+                /* keeps the access order across restarts */
+                file.setLastModified(System.currentTimeMillis());
+                return body;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            removeEntry(fileName);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the body for the key, replacing any previous entry, and evicts the least recently
+     * used entries when the cache goes over its budget. Bodies larger than the whole budget are
+     * not stored.
+     *
+     * @param key  The cache key, usually the request URL.
+     * @param body The response body.
+     */
+    public synchronized void put(String key, byte[] body) {
+        initialize();
+        String fileName = getFileName(key);
+        long entrySize = body.length + ENTRY_HEADER_BYTES;
+        if (entrySize > mMaxBytes) {
+            Log.d(TAG, "put: " + entrySize + " bytes is over the budget, not caching " + key);
+            removeEntry(fileName);
+            return;
+        }
+
+        /* the system may have wiped the cache directory since initialize() */
+        if (!mDirectory.isDirectory()) {
+            mDirectory.mkdirs();
+        }
+        File tempFile = new File(mDirectory, fileName + TEMP_FILE_SUFFIX);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeLong(System.currentTimeMillis());
+                out.write(body);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return;
+        }
+
+        /* readers never see a partially written entry */
+        removeEntry(fileName);
+        if (!tempFile.renameTo(new File(mDirectory, fileName))) {
+            Log.w(TAG, "put: unable to commit the entry for " + key);
+            tempFile.delete();
+            return;
+        }
+        mEntries.put(fileName, entrySize);
+        mSize += entrySize;
+        trimToSize();
+    }
+
+    /**
+     * Removes the entry stored for the key, if any.
+     *
+     * @param key The cache key.
+     */
+    public synchronized void remove(String key) {
+        initialize();
+        removeEntry(getFileName(key));
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public synchronized void clear() {
+        initialize();
+        for (String fileName : mEntries.keySet()) {
+            new File(mDirectory, fileName).delete();
+        }
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * @return The total size of the entries in bytes.
+     */
+    public synchronized long size() {
+        initialize();
+        return mSize;
+    }
+
+    /**
+     * Builds the in-memory index from the files on disk, on first use so it doesn't happen on
+     * the thread that creates the cache.
+     */
+    private void initialize() {
+        if (mInitialized) return;
+        mInitialized = true;
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "initialize: unable to create " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+
+        /* oldest access first, matching the order of the LinkedHashMap */
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long diff = lhs.lastModified() - rhs.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                /* left behind by an interrupted put() */
+                file.delete();
+            } else {
+                mEntries.put(file.getName(), file.length());
+                mSize += file.length();
+            }
+        }
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(mDirectory, eldest.getKey()).delete();
+            mSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void removeEntry(String fileName) {
+        Long entrySize = mEntries.remove(fileName);
+        if (entrySize != null) {
+            mSize -= entrySize;
+        }
+        new File(mDirectory, fileName).delete();
+    }
+
+    /**
+     * @return The hex encoded MD5 of the key, URLs can't be used as file names as is.
+     */
+    private static String getFileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b & 0xff));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link HttpTransport} decorator that hedges requests which opted in with
+ * {@link HttpRequest#setHedged(boolean)}.
+ * <p>
+ * An attempt reads the whole body before it returns, so a response whose body stalls is
+ * hedged just like one whose headers are slow. Hedged requests are small(the details of a
+ * movie), buffering them costs little. If the first attempt hasn't returned by the p95 latency
+ * of its endpoint, a second identical request is sent and whichever returns first wins, the
+ * other response is closed. The extra load is capped twice: every hedgeable request earns a
+ * fraction of a hedge, so at most that fraction of the requests is sent twice, and only a few
+ * hedges may be in flight at any time. Latencies are tracked per endpoint, i.e. the URL path
+ * with the movie IDs left out, from the completed attempts.
+ * </p>
+ * <p>
+ * The transport sits below the priority dispatcher and the rate limiter, so the latencies only
+ * cover the network and not the time spent waiting for a slot or a token. The hedge doesn't
+ * queue behind other requests either: it is only sent if the rate limiter has a token to spare
+ * right away, so it never adds to a saturated quota. Since hedges don't take a dispatcher
+ * slot, the cap on the hedges in flight bounds how far they go past the dispatcher's limit.
+ * The slot of a hedged request is held until its body is read.
+ * </p>
+ */
+
+public class HedgingTransport implements HttpTransport {
+    private static final String TAG = HedgingTransport.class.getSimpleName();
+
+    private static final double HEDGE_PERCENTILE = 0.95;
+    /* used until an endpoint has enough samples for a meaningful p95 */
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = 1000;
+    /* never hedge sooner than this, it would only double the load of a healthy network */
+    private static final long MIN_HEDGE_DELAY_MILLIS = 50;
+
+    private static final int LATENCY_WINDOW_SIZE = 100;
+    private static final int LATENCY_MIN_SAMPLES = 10;
+
+    /* the budget never holds more than this many hedges */
+    private static final double MAX_HEDGE_TOKENS = 3;
+
+    private final HttpTransport mDelegate;
+    private final TokenBucket mTokenBucket;
+    private final double mMaxHedgeRatio;
+    private final int mMaxHedgesInFlight;
+    private final LatencyTracker mLatencyTracker =
+            new LatencyTracker(LATENCY_WINDOW_SIZE, LATENCY_MIN_SAMPLES);
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    /* hedges that may be sent right now, see mMaxHedgeRatio */
+    private double mHedgeTokens = 1;
+    /* hedges sent and not returned yet, see mMaxHedgesInFlight */
+    private int mHedgesInFlight;
+
+    /**
+     * @param delegate          The transport that performs the requests.
+     * @param tokenBucket       The rate limiter's bucket, the hedges take their token from it.
+     * @param maxHedgeRatio     Fraction of the hedgeable requests that may be sent twice,
+     *                          e.g. 0.1 for at most 10% extra load.
+     * @param maxHedgesInFlight Number of hedges allowed in the delegate at the same time.
+     */
+    public HedgingTransport(HttpTransport delegate, TokenBucket tokenBucket,
+                            double maxHedgeRatio, int maxHedgesInFlight) {
+        mDelegate = delegate;
+        mTokenBucket = tokenBucket;
+        mMaxHedgeRatio = maxHedgeRatio;
+        mMaxHedgesInFlight = maxHedgesInFlight;
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        if (!request.isHedged()) {
+            return mDelegate.execute(request);
+        }
+
+        CancellationToken cancellationToken = request.getCancellationToken();
+        if (cancellationToken != null) {
+            /* cancelling fails the attempts in flight, which ends the wait below */
+            cancellationToken.throwIfCanceled();
+        }
+
+        String endpoint = getEndpoint(request);
+        earnHedgeToken();
+
+        /* set by the first attempt to return, later attempts close their response */
+        AtomicBoolean won = new AtomicBoolean();
+        CompletionService<HttpResponse> completionService =
+                new ExecutorCompletionService<>(mExecutor);
+        List<Future<HttpResponse>> attempts = new ArrayList<>(2);
+        attempts.add(completionService.submit(new Attempt(request, endpoint, won, false)));
+
+        try {
+            long hedgeDelayMillis = getHedgeDelayMillis(endpoint);
+            Future<HttpResponse> completed =
+                    completionService.poll(hedgeDelayMillis, TimeUnit.MILLISECONDS);
+            if (completed == null
+                    && (cancellationToken == null || !cancellationToken.isCanceled())
+                    && acquireHedge()) {
+                Log.d(TAG, "execute: no response after " + hedgeDelayMillis + "ms, hedging "
+                        + request);
+                attempts.add(completionService.submit(
+                        new Attempt(request, endpoint, won, true)));
+            }
+
+            IOException failure = null;
+            for (int remaining = attempts.size(); remaining > 0; remaining--) {
+                if (completed == null) {
+                    completed = completionService.take();
+                }
+                try {
+                    HttpResponse response = completed.get();
+                    if (response != null) {
+                        return response;
+                    }
+                } catch (ExecutionException e) {
+                    /* keep waiting for the other attempt, if there is one */
+                    if (failure == null) {
+                        failure = toIOException(e);
+                    }
+                }
+                completed = null;
+            }
+            throw failure != null ? failure : new IOException("No response for " + request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandon(attempts, won);
+            throw new InterruptedIOException("Interrupted while waiting for " + request);
+        }
+    }
+
+    /**
+     * Returns the delay after which a request to the endpoint is hedged.
+     */
+    private long getHedgeDelayMillis(String endpoint) {
+        long p95 = mLatencyTracker.getPercentile(endpoint, HEDGE_PERCENTILE);
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, p95 < 0 ? DEFAULT_HEDGE_DELAY_MILLIS : p95);
+    }
+
+    /**
+     * Takes what a hedge needs: room among the hedges in flight, a token from the hedge budget
+     * and one from the rate limiter. The room is given back by {@link #releaseHedge()}.
+     *
+     * @return TRUE if the hedge may be sent.
+     */
+    private boolean acquireHedge() {
+        synchronized (this) {
+            if (mHedgesInFlight >= mMaxHedgesInFlight) {
+                Log.d(TAG, "acquireHedge: " + mHedgesInFlight + " hedges in flight already");
+                return false;
+            }
+            if (!spendHedgeToken()) return false;
+            mHedgesInFlight++;
+        }
+        if (acquireRateLimitToken()) return true;
+        synchronized (this) {
+            /* the hedge wasn't sent, it didn't cost anything */
+            mHedgeTokens += 1;
+            mHedgesInFlight--;
+        }
+        return false;
+    }
+
+    private synchronized void releaseHedge() {
+        mHedgesInFlight--;
+    }
+
+    private synchronized void earnHedgeToken() {
+        mHedgeTokens = Math.min(MAX_HEDGE_TOKENS, mHedgeTokens + mMaxHedgeRatio);
+    }
+
+    /**
+     * @return TRUE if the budget allowed a hedge, which is then taken out of it.
+     */
+    private synchronized boolean spendHedgeToken() {
+        if (mHedgeTokens < 1) {
+            Log.d(TAG, "spendHedgeToken: hedge budget exhausted");
+            return false;
+        }
+        mHedgeTokens -= 1;
+        return true;
+    }
+
+    /**
+     * @return TRUE if the rate limiter had a token for the hedge, FALSE if the quota is
+     * saturated and the hedge would only wait for it.
+     */
+    private boolean acquireRateLimitToken() {
+        if (mTokenBucket.tryAcquire()) return true;
+        Log.d(TAG, "acquireRateLimitToken: rate limit saturated, not hedging");
+        return false;
+    }
+
+    /**
+     * Makes sure the responses of attempts nobody waits for anymore get closed.
+     */
+    private void abandon(final List<Future<HttpResponse>> attempts, AtomicBoolean won) {
+        if (won.compareAndSet(false, true)) {
+            /* no attempt has won yet, they will close their own responses. */
+            return;
+        }
+        /* one attempt won but nobody will read its response */
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Future<HttpResponse> attempt : attempts) {
+                    try {
+                        HttpResponse response = attempt.get();
+                        if (response != null) {
+                            response.close();
+                        }
+                    } catch (InterruptedException | ExecutionException e) {
+                        /* nothing to close */
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Endpoint of the request used to track latencies, i.e. the URL path with the numeric
+     * segments replaced and the appended responses, e.g. "/3/movie/{id}?videos,reviews".
+     */
+    private static String getEndpoint(HttpRequest request) {
+        Uri uri = Uri.parse(request.getUrl().toString());
+        StringBuilder builder = new StringBuilder();
+        for (String segment : uri.getPathSegments()) {
+            builder.append('/').append(TextUtils.isDigitsOnly(segment) ? "{id}" : segment);
+        }
+        String appended = uri.getQueryParameter("append_to_response");
+        if (appended != null) {
+            builder.append('?').append(appended);
+        }
+        return builder.toString();
+    }
+
+    private static IOException toIOException(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * A single try of the request, reading the whole body and recording its latency once it
+     * returns.
+     */
+    private class Attempt implements Callable<HttpResponse> {
+        private final HttpRequest mRequest;
+        private final String mEndpoint;
+        private final AtomicBoolean mWon;
+        private final boolean mHedge;
+
+        Attempt(HttpRequest request, String endpoint, AtomicBoolean won, boolean hedge) {
+            mRequest = request;
+            mEndpoint = endpoint;
+            mWon = won;
+            mHedge = hedge;
+        }
+
+        /**
+         * @return The response, or null if another attempt already returned one.
+         */
+        @Override
+        public HttpResponse call() throws IOException {
+            try {
+                long start = SystemClock.elapsedRealtime();
+                HttpResponse response = mDelegate.execute(mRequest);
+                if (mWon.get()) {
+                    /* lost already, don't download the body for nothing */
+                    response.close();
+                    return null;
+                }
+                if (response.getBody() != null) {
+                    /* the time to the whole body, a stalled body is as slow as slow headers */
+                    response = new HttpResponse(response.getStatusCode(), response.getHeaders(),
+                            new ByteArrayInputStream(CachingTransport.readFully(response)));
+                }
+                mLatencyTracker.record(mEndpoint, SystemClock.elapsedRealtime() - start);
+
+                if (!mWon.compareAndSet(false, true)) {
+                    response.close();
+                    return null;
+                }
+                return response;
+            } finally {
+                if (mHedge) {
+                    releaseHedge();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents a GET request to be executed by a {@link HttpTransport}.
+ */
+
+public class HttpRequest {
+
+    /**
+     * How urgently the response is needed, highest priority first. Used by
+     * {@link PriorityDispatchTransport} to order queued requests.
+     */
+    public enum Priority {
+        /* the movie the user just opened */
+        DETAIL,
+        /* the grid the user is looking at */
+        GRID,
+        /* data the user is likely to look at next */
+        PREFETCH,
+        /* periodic background sync */
+        SYNC
+    }
+
+    /* the URL to fetch */
+    private final URL mUrl;
+    /* additional request headers */
+    private final Map<String, String> mHeaders = new LinkedHashMap<>();
+    /* whether the request should be revalidated with stored validators */
+    private boolean mConditional;
+    /* how long the response may be served from the disk cache, 0 to not cache it */
+    private long mCacheTtlMillis;
+    private Priority mPriority = Priority.GRID;
+    /* whether a slow request may be sent a second time */
+    private boolean mHedged;
+    /* cancels the request on behalf of the job or loader that made it, may be null */
+    private CancellationToken mCancellationToken;
+
+    public HttpRequest(URL url) {
+        mUrl = url;
+    }
+
+    public URL getUrl() {
+        return mUrl;
+    }
+
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    /**
+     * Sets a request header, replacing any previous value for the same name.
+     *
+     * @param name  The header name.
+     * @param value The header value.
+     */
+    public void setHeader(String name, String value) {
+        mHeaders.put(name, value);
+    }
+
+    public boolean isConditional() {
+        return mConditional;
+    }
+
+    /**
+     * Marks the request as conditional. Conditional requests send the validators of the last
+     * successful response for the same URL and may get a 304 (Not Modified) back. Only set
+     * this when the caller still has the data from that previous response.
+     *
+     * @param conditional TRUE to revalidate using stored validators.
+     */
+    public void setConditional(boolean conditional) {
+        mConditional = conditional;
+    }
+
+    public long getCacheTtlMillis() {
+        return mCacheTtlMillis;
+    }
+
+    /**
+     * Allows the response to be cached on disk and served from there for the supplied
+     * duration. Requests are not cached by default.
+     *
+     * @param cacheTtlMillis How long a cached response stays fresh, 0 to not cache it.
+     */
+    public void setCacheTtlMillis(long cacheTtlMillis) {
+        mCacheTtlMillis = cacheTtlMillis;
+    }
+
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @param priority How urgently the response is needed, {@link Priority#GRID} by default.
+     */
+    public void setPriority(Priority priority) {
+        mPriority = priority;
+    }
+
+    public boolean isHedged() {
+        return mHedged;
+    }
+
+    /**
+     * Allows a second identical request to be sent when this one is slower than usual, the
+     * first response wins. Only set this for requests the user is waiting on.
+     *
+     * @param hedged TRUE to allow hedging.
+     */
+    public void setHedged(boolean hedged) {
+        mHedged = hedged;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return mCancellationToken;
+    }
+
+    /**
+     * Ties the request to a {@link CancellationToken}. Cancelling the token closes the socket
+     * and fails the request, even while it waits for a slot, a rate limit token or a retry.
+     *
+     * @param cancellationToken The token of the work the request is made for.
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        mCancellationToken = cancellationToken;
+    }
+
+    public String toString() {
+        return "GET " + mUrl;
+    }
+}
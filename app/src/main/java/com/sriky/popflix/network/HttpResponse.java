@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response returned by a {@link HttpTransport}. Holds the status code, the response headers and
+ * the (already decompressed) body stream.
+ */
+
+public class HttpResponse implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int mStatusCode;
+    private final Map<String, List<String>> mHeaders;
+    private final InputStream mBody;
+
+    public HttpResponse(int statusCode, Map<String, List<String>> headers, InputStream body) {
+        mStatusCode = statusCode;
+        mHeaders = headers != null ? headers : Collections.<String, List<String>>emptyMap();
+        mBody = body;
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * @return TRUE if the status code is in the 2xx range.
+     */
+    public boolean isSuccessful() {
+        return mStatusCode >= 200 && mStatusCode < 300;
+    }
+
+    /**
+     * @return TRUE if the server answered a conditional request with 304 (Not Modified).
+     */
+    public boolean isNotModified() {
+        return mStatusCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return mHeaders;
+    }
+
+    /**
+     * Returns the first value of the header with the supplied name. Header names are compared
+     * ignoring case.
+     *
+     * @param name The header name.
+     * @return The header value or null if the header isn't present.
+     */
+    public String getHeader(String name) {
+        for (Map.Entry<String, List<String>> entry : mHeaders.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey())
+                    && entry.getValue() != null && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The response body stream, or null if the response has no body.
+     */
+    public InputStream getBody() {
+        return mBody;
+    }
+
+    /**
+     * Returns a reader decoding the body as UTF-8(TMDB's only charset), so parsers can consume
+     * the body while it is being downloaded. Closing the reader closes the response.
+     *
+     * @return The body reader, or null if the response has no body.
+     */
+    public Reader getBodyAsReader() {
+        return mBody != null ? new InputStreamReader(mBody, UTF_8) : null;
+    }
+
+    /**
+     * Reads the entire body as an UTF-8 string and closes the response. Prefer
+     * {@link #getBodyAsReader()} for parsers that can stream.
+     *
+     * @return The body contents or null if the response doesn't have a body.
+     * @throws IOException Related to stream reading, or {@link ResponseTooLargeException} if
+     *                     the body is over the transport's limit.
+     */
+    public String getBodyAsString() throws IOException {
+        if (mBody == null) return null;
+        char[] buffer = BufferPool.acquireChars();
+        try {
+            Reader reader = getBodyAsReader();
+            StringBuilder builder = new StringBuilder(buffer.length);
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, read);
+            }
+            return builder.toString();
+        } finally {
+            BufferPool.releaseChars(buffer);
+            close();
+        }
+    }
+
+    /**
+     * Closes the body stream. Fully consumed and closed streams allow the connection to be
+     * returned to the keep-alive pool.
+     */
+    @Override
+    public void close() {
+        if (mBody != null) {
+            try {
+                mBody.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
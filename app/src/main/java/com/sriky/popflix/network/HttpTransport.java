@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import java.io.IOException;
+
+/**
+ * Abstraction over the HTTP stack used to talk to TMDB. All network calls made by the sync
+ * service and the loaders go through a single shared instance obtained from
+ * {@link com.sriky.popflix.utilities.NetworkUtils#getHttpTransport(android.content.Context)},
+ * so that sockets can be reused across callers.
+ */
+
+public interface HttpTransport {
+
+    /**
+     * Executes the supplied request and returns the response. The caller owns the returned
+     * {@link HttpResponse} and must {@link HttpResponse#close()} it once done, which hands the
+     * underlying connection back to the pool.
+     *
+     * @param request The request to execute.
+     * @return The response from the server.
+     * @throws IOException Related to network and stream reading.
+     */
+    HttpResponse execute(HttpRequest request) throws IOException;
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Thread safe tracker of the recent latencies per endpoint. Each endpoint keeps a sliding
+ * window of its last samples, percentiles are computed over that window.
+ */
+
+public class LatencyTracker {
+    private final int mWindowSize;
+    private final int mMinSamples;
+
+    private final Map<String, Window> mWindows = new HashMap<>();
+
+    /**
+     * Ring buffer holding the latest samples of an endpoint.
+     */
+    private static class Window {
+        final long[] samples;
+        int count;
+        int next;
+
+        Window(int size) {
+            samples = new long[size];
+        }
+
+        void add(long sample) {
+            samples[next] = sample;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) {
+                count++;
+            }
+        }
+    }
+
+    /**
+     * @param windowSize Number of recent samples kept per endpoint.
+     * @param minSamples Number of samples needed before a percentile is reported.
+     */
+    public LatencyTracker(int windowSize, int minSamples) {
+        mWindowSize = windowSize;
+        mMinSamples = minSamples;
+    }
+
+    /**
+     * Records a latency sample for the endpoint.
+     *
+     * @param endpoint      Identifies the endpoint.
+     * @param latencyMillis The observed latency.
+     */
+    public synchronized void record(String endpoint, long latencyMillis) {
+        Window window = mWindows.get(endpoint);
+        if (window == null) {
+            window = new Window(mWindowSize);
+            mWindows.put(endpoint, window);
+        }
+        window.add(latencyMillis);
+    }
+
+    /**
+     * Returns the latency below which the supplied fraction of the recent samples fall.
+     *
+     * @param endpoint   Identifies the endpoint.
+     * @param percentile The percentile between 0 and 1, e.g. 0.95 for the p95.
+     * @return The latency in millis or -1 if there aren't enough samples yet.
+     */
+    public synchronized long getPercentile(String endpoint, double percentile) {
+        Window window = mWindows.get(endpoint);
+        if (window == null || window.count < mMinSamples) return -1;
+
+        long[] sorted = Arrays.copyOf(window.samples, window.count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.PriorityQueue;
+
+/**
+ * {@link HttpTransport} decorator that bounds the number of requests in flight and hands out
+ * the free slots by {@link HttpRequest.Priority}. Requests of the same priority are served in
+ * arrival order. A request that is already in flight is never interrupted, but queued
+ * background work yields to a user opening a movie.
+ * <p>
+ * A slot is held until the delegate returns the response, i.e. for the time to the response
+ * headers. Reading the body doesn't hold a slot. Rate limiting and retries belong above the
+ * dispatcher, so a request waiting for a token or backing off never holds a slot that a more
+ * urgent request could use; each retry queues again at its priority.
+ * </p>
+ */
+
+public class PriorityDispatchTransport implements HttpTransport {
+    private static final String TAG = PriorityDispatchTransport.class.getSimpleName();
+
+    private final HttpTransport mDelegate;
+    private final int mMaxRequestsInFlight;
+
+    /* requests waiting for a slot, highest priority first */
+    private final PriorityQueue<Ticket> mWaiting = new PriorityQueue<>();
+    private int mRequestsInFlight;
+    /* keeps requests of the same priority in arrival order */
+    private long mNextSequence;
+
+    /**
+     * A request waiting for a slot.
+     */
+    private static class Ticket implements Comparable<Ticket> {
+        final HttpRequest.Priority priority;
+        final long sequence;
+        boolean granted;
+
+        Ticket(HttpRequest.Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Ticket other) {
+            int result = priority.compareTo(other.priority);
+            if (result != 0) return result;
+            return sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+        }
+    }
+
+    /**
+     * @param delegate            The transport that performs the requests.
+     * @param maxRequestsInFlight Number of requests allowed in the delegate at the same time.
+     */
+    public PriorityDispatchTransport(HttpTransport delegate, int maxRequestsInFlight) {
+        mDelegate = delegate;
+        mMaxRequestsInFlight = maxRequestsInFlight;
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        acquire(request);
+        try {
+            return mDelegate.execute(request);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Blocks until a slot is handed to the request.
+     *
+     * @throws InterruptedIOException If the thread was interrupted or the request cancelled
+     *                                while waiting.
+     */
+    private void acquire(HttpRequest request) throws InterruptedIOException {
+        CancellationToken cancellationToken = request.getCancellationToken();
+        if (cancellationToken == null) {
+            waitForSlot(request, null);
+            return;
+        }
+
+        /* wakes up the waiting thread so it can notice the cancellation */
+        CancellationToken.OnCancelListener onCancelListener =
+                new CancellationToken.OnCancelListener() {
+                    @Override
+                    public void onCancel() {
+                        synchronized (PriorityDispatchTransport.this) {
+                            PriorityDispatchTransport.this.notifyAll();
+                        }
+                    }
+                };
+        cancellationToken.addListener(onCancelListener);
+        try {
+            waitForSlot(request, cancellationToken);
+        } finally {
+            cancellationToken.removeListener(onCancelListener);
+        }
+    }
+
+    private synchronized void waitForSlot(HttpRequest request,
+                                          CancellationToken cancellationToken)
+            throws InterruptedIOException {
+        if (cancellationToken != null) {
+            cancellationToken.throwIfCanceled();
+        }
+        if (mRequestsInFlight < mMaxRequestsInFlight && mWaiting.isEmpty()) {
+            mRequestsInFlight++;
+            return;
+        }
+
+        Ticket ticket = new Ticket(request.getPriority(), mNextSequence++);
+        mWaiting.add(ticket);
+        Log.d(TAG, "acquire: " + request + " queued behind " + (mWaiting.size() - 1)
+                + " requests, priority = " + ticket.priority);
+        try {
+            while (!ticket.granted) {
+                if (cancellationToken != null && cancellationToken.isCanceled()) {
+                    mWaiting.remove(ticket);
+                    cancellationToken.throwIfCanceled();
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            if (ticket.granted) {
+                /* the slot was handed over while we were being interrupted, pass it on. */
+                release();
+            } else {
+                mWaiting.remove(ticket);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send " + request);
+        }
+    }
+
+    /**
+     * Frees the slot, handing it straight to the highest priority waiting request if any.
+     */
+    private synchronized void release() {
+        Ticket next = mWaiting.poll();
+        if (next == null) {
+            mRequestsInFlight--;
+        } else {
+            /* the slot changes hands, so the number of requests in flight stays the same. */
+            next.granted = true;
+            notifyAll();
+        }
+    }
+}
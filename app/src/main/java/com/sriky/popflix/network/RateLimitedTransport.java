@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * {@link HttpTransport} decorator that keeps every request within the TMDB rate limit.
+ * <p>
+ * Requests take a token from a {@link TokenBucket} shared by the sync service and the loaders.
+ * When the server still answers with 429 (Too Many Requests) or a 5xx, the request is retried
+ * after the delay in the Retry-After header, or after a jittered exponential backoff if the
+ * header is missing. A 429 also pauses the bucket, so other callers back off too instead of
+ * tripping the limit again.
+ * </p>
+ * <p>
+ * It belongs above the {@link PriorityDispatchTransport}: the waits for a token and the
+ * backoffs then don't hold a dispatcher slot, and every retry queues again at its priority.
+ * </p>
+ */
+
+public class RateLimitedTransport implements HttpTransport {
+    private static final String TAG = RateLimitedTransport.class.getSimpleName();
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /* backoff used when the server doesn't send Retry-After */
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    /* never wait longer than this between two attempts */
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private final HttpTransport mDelegate;
+    private final TokenBucket mTokenBucket;
+    private final int mMaxRetries;
+    private final Random mRandom = new Random();
+
+    /**
+     * @param delegate    The transport that performs the requests.
+     * @param tokenBucket The bucket that holds the shared quota.
+     * @param maxRetries  Number of times a throttled or failed request is retried.
+     */
+    public RateLimitedTransport(HttpTransport delegate, TokenBucket tokenBucket, int maxRetries) {
+        mDelegate = delegate;
+        mTokenBucket = tokenBucket;
+        mMaxRetries = maxRetries;
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            mTokenBucket.acquire(request.getCancellationToken());
+            HttpResponse response = mDelegate.execute(request);
+
+            int statusCode = response.getStatusCode();
+            boolean throttled = statusCode == HTTP_TOO_MANY_REQUESTS;
+            if ((!throttled && statusCode < 500) || attempt >= mMaxRetries) {
+                return response;
+            }
+
+            long delayMillis = getRetryAfterMillis(response);
+            if (delayMillis < 0) {
+                delayMillis = getBackoffMillis(attempt);
+            }
+            delayMillis = Math.min(delayMillis, MAX_BACKOFF_MILLIS);
+            response.close();
+
+            Log.w(TAG, "execute: " + request + " got " + statusCode + ", retrying in "
+                    + delayMillis + "ms");
+            if (throttled) {
+                /* everyone shares the quota, so everyone waits. */
+                mTokenBucket.pause(delayMillis);
+            } else {
+                CancellationToken.sleep(request.getCancellationToken(), delayMillis);
+            }
+        }
+    }
+
+    /**
+     * Reads the Retry-After header, which is either a number of seconds or a HTTP date.
+     *
+     * @param response The throttled response.
+     * @return The delay in millis or -1 if the header is missing or malformed.
+     */
+    private static long getRetryAfterMillis(HttpResponse response) {
+        String retryAfter = response.getHeader(HEADER_RETRY_AFTER);
+        if (retryAfter == null) return -1;
+
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+                Date date = format.parse(retryAfter.trim());
+                return Math.max(0, date.getTime() - System.currentTimeMillis());
+            } catch (ParseException pe) {
+                Log.w(TAG, "getRetryAfterMillis: unable to parse " + retryAfter);
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Exponential backoff with full jitter, i.e. a random delay between 0 and
+     * BASE_BACKOFF_MILLIS * 2^attempt.
+     */
+    private long getBackoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return (long) (mRandom.nextDouble() * ceiling);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent calls for the same key (usually the request URL) into a single call.
+ * The first caller starts the work, callers arriving while it is in flight join it, and all of
+ * them receive the same result (or exception). Once the call completes the key is released, so
+ * later callers start a fresh call.
+ * <p>
+ * The shared call runs on its own thread with its own {@link CancellationToken}, so it doesn't
+ * depend on any one caller. A caller whose token is cancelled stops waiting and leaves, the
+ * shared call is only cancelled once the last caller has left.
+ * </p>
+ *
+ * @param <T> The type of the shared result.
+ */
+
+public class SingleFlight<T> {
+    private static final String TAG = SingleFlight.class.getSimpleName();
+
+    /**
+     * The work shared by the callers.
+     *
+     * @param <T> The type of the result.
+     */
+    public interface Call<T> {
+        /**
+         * @param cancellationToken The token of the shared call, cancelled once every caller
+         *                          has left.
+         * @return The result.
+         * @throws IOException Related to network and stream reading.
+         */
+        T call(CancellationToken cancellationToken) throws IOException;
+    }
+
+    /**
+     * A call in flight and its callers.
+     */
+    private class Flight extends FutureTask<T> {
+        final String key;
+        final CancellationToken cancellationToken;
+        /* callers waiting for the result, guarded by the SingleFlight */
+        int waiters;
+
+        Flight(String key, Callable<T> callable, CancellationToken cancellationToken) {
+            super(callable);
+            this.key = key;
+            this.cancellationToken = cancellationToken;
+        }
+
+        @Override
+        protected void done() {
+            release(this);
+            /* wakes up the waiting callers */
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /* calls currently in flight, keyed by the caller supplied key, guarded by this */
+    private final Map<String, Flight> mInFlight = new HashMap<>();
+
+    /* runs the shared calls, one thread per key in flight */
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    /**
+     * Runs the call, or joins the call already in flight for the same key.
+     *
+     * @param key               Identifies identical calls, e.g. the request URL.
+     * @param cancellationToken Stops the caller's wait when cancelled, may be null.
+     * @param call              The work to perform when no call is in flight for the key.
+     * @return The result of the shared call.
+     * @throws IOException If the shared call failed with an IOException, or the wait was
+     *                     interrupted or cancelled.
+     */
+    public T execute(String key, CancellationToken cancellationToken, final Call<T> call)
+            throws IOException {
+        Flight flight;
+        boolean start = false;
+        synchronized (this) {
+            flight = mInFlight.get(key);
+            if (flight == null) {
+                final CancellationToken sharedToken = new CancellationToken();
+                flight = new Flight(key, new Callable<T>() {
+                    @Override
+                    public T call() throws IOException {
+                        return call.call(sharedToken);
+                    }
+                }, sharedToken);
+                mInFlight.put(key, flight);
+                start = true;
+            } else {
+                Log.d(TAG, "execute: joining the call in flight for " + key);
+            }
+            flight.waiters++;
+        }
+        if (start) {
+            mExecutor.execute(flight);
+        }
+
+        try {
+            return await(flight, cancellationToken);
+        } finally {
+            leave(flight);
+        }
+    }
+
+    /**
+     * Waits for the result of the flight, or until the caller's token is cancelled.
+     */
+    private T await(final Flight flight, CancellationToken cancellationToken)
+            throws IOException {
+        /* wakes up the waiting caller so it can notice the cancellation */
+        CancellationToken.OnCancelListener onCancelListener =
+                new CancellationToken.OnCancelListener() {
+                    @Override
+                    public void onCancel() {
+                        synchronized (flight) {
+                            flight.notifyAll();
+                        }
+                    }
+                };
+        if (cancellationToken != null) {
+            cancellationToken.addListener(onCancelListener);
+        }
+        try {
+            synchronized (flight) {
+                while (!flight.isDone()) {
+                    if (cancellationToken != null) {
+                        cancellationToken.throwIfCanceled();
+                    }
+                    flight.wait();
+                }
+            }
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + flight.key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            if (cancellationToken != null) {
+                cancellationToken.removeListener(onCancelListener);
+            }
+        }
+    }
+
+    /**
+     * Called by every caller once it stops waiting. The last caller to leave a call that is
+     * still running cancels it, nobody wants its result anymore.
+     */
+    private void leave(Flight flight) {
+        synchronized (this) {
+            if (--flight.waiters > 0 || flight.isDone()) return;
+            /* later callers start a fresh call rather than joining a cancelled one */
+            release(flight);
+        }
+        Log.d(TAG, "leave: every caller left, cancelling the call for " + flight.key);
+        flight.cancellationToken.cancel();
+    }
+
+    /**
+     * Releases the key of the flight, unless another flight has taken it already.
+     */
+    private synchronized void release(Flight flight) {
+        if (mInFlight.get(flight.key) == flight) {
+            mInFlight.remove(flight.key);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.os.SystemClock;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thread safe token bucket. Each request takes one token, tokens are refilled at a constant
+ * rate up to the capacity of the bucket. The bucket can also be paused until a point in time,
+ * e.g. when the server asks clients to back off.
+ */
+
+public class TokenBucket {
+    private final int mCapacity;
+    private final double mTokensPerMilli;
+
+    private double mTokens;
+    private long mLastRefillMillis;
+    /* no tokens are handed out before this time(elapsed realtime millis) */
+    private long mPausedUntilMillis;
+
+    /**
+     * @param capacity           Maximum number of tokens, i.e. the allowed burst.
+     * @param refillTokens       Number of tokens added every refillPeriodMillis.
+     * @param refillPeriodMillis The refill period.
+     */
+    public TokenBucket(int capacity, int refillTokens, long refillPeriodMillis) {
+        mCapacity = capacity;
+        mTokensPerMilli = (double) refillTokens / refillPeriodMillis;
+        mTokens = capacity;
+        mLastRefillMillis = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Blocks until a token is available and takes it.
+     *
+     * @param cancellationToken Stops the wait when cancelled, may be null.
+     * @throws InterruptedIOException If the thread was interrupted or the cancellationToken
+     *                                cancelled while waiting.
+     */
+    public void acquire(CancellationToken cancellationToken) throws InterruptedIOException {
+        while (true) {
+            long waitMillis;
+            synchronized (this) {
+                long now = SystemClock.elapsedRealtime();
+                refill(now);
+                if (now < mPausedUntilMillis) {
+                    waitMillis = mPausedUntilMillis - now;
+                } else if (mTokens >= 1) {
+                    mTokens -= 1;
+                    return;
+                } else {
+                    waitMillis = (long) Math.ceil((1 - mTokens) / mTokensPerMilli);
+                }
+            }
+            CancellationToken.sleep(cancellationToken, Math.max(1, waitMillis));
+        }
+    }
+
+    /**
+     * Takes a token if one is available right away, without waiting.
+     *
+     * @return TRUE if a token was taken, FALSE if the bucket is empty or paused.
+     */
+    public synchronized boolean tryAcquire() {
+        long now = SystemClock.elapsedRealtime();
+        refill(now);
+        if (now < mPausedUntilMillis || mTokens < 1) return false;
+        mTokens -= 1;
+        return true;
+    }
+
+    /**
+     * Stops handing out tokens for the supplied duration. Overlapping pauses keep the later end.
+     *
+     * @param durationMillis How long to pause for.
+     */
+    public synchronized void pause(long durationMillis) {
+        long pausedUntil = SystemClock.elapsedRealtime() + durationMillis;
+        if (pausedUntil > mPausedUntilMillis) {
+            mPausedUntilMillis = pausedUntil;
+        }
+        /* whatever burst was left is what got us throttled, start again from empty. */
+        mTokens = 0;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - mLastRefillMillis;
+        if (elapsed > 0) {
+            mTokens = Math.min(mCapacity, mTokens + elapsed * mTokensPerMilli);
+            mLastRefillMillis = now;
+        }
+    }
+}
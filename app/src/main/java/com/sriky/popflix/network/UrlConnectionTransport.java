@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.network;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpTransport} backed by the platform {@link HttpURLConnection}.
+ * <p>
+ * The platform implementation keeps a process wide pool of keep-alive connections. A connection
+ * only goes back to that pool when its body has been read to the end and the stream closed,
+ * so this class never calls {@link HttpURLConnection#disconnect()} on the happy path. That lets
+ * the sync service and the loaders share warm TLS connections to TMDB instead of paying a full
+ * handshake per call.
+ * </p>
+ */
+
+public class UrlConnectionTransport implements HttpTransport {
+    private static final String TAG = UrlConnectionTransport.class.getSimpleName();
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String ENCODING_GZIP = "gzip";
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final long mMaxBodyBytes;
+
+    /**
+     * Creates the transport and configures the platform connection pool.
+     *
+     * @param connectTimeoutMillis Timeout(millis) to establish a connection.
+     * @param readTimeoutMillis    Timeout(millis) between two reads of the response.
+     * @param maxIdleConnections   Maximum number of idle keep-alive connections per host.
+     * @param maxBodyBytes         Maximum size of a (decompressed) response body, reading past
+     *                             it fails with a {@link ResponseTooLargeException}.
+     */
+    public UrlConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis,
+                                  int maxIdleConnections, long maxBodyBytes) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mMaxBodyBytes = maxBodyBytes;
+
+        /* these are read by the platform's connection pool when it is first used. */
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(maxIdleConnections));
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        CancellationToken cancellationToken = request.getCancellationToken();
+        if (cancellationToken != null) {
+            cancellationToken.throwIfCanceled();
+        }
+
+        final HttpURLConnection connection =
+                (HttpURLConnection) request.getUrl().openConnection();
+        CancellationToken.OnCancelListener onCancelListener = null;
+        if (cancellationToken != null) {
+            /* closing the socket is the only way to unblock a connect or a read */
+            onCancelListener = new CancellationToken.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    connection.disconnect();
+                }
+            };
+            cancellationToken.addListener(onCancelListener);
+        }
+
+        try {
+            /* Both need to be set as the connection can time out for either of them */
+            connection.setConnectTimeout(mConnectTimeoutMillis);
+            connection.setReadTimeout(mReadTimeoutMillis);
+            connection.setUseCaches(false);
+
+            /* asking for gzip explicitly means the platform won't decompress for us. */
+            connection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            int statusCode = connection.getResponseCode();
+            Log.d(TAG, "execute: " + request + " -> " + statusCode);
+
+            InputStream body = statusCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getErrorStream()
+                    : connection.getInputStream();
+
+            if (body != null) {
+                /* don't even start reading a body that is announced to be too large */
+                long contentLength = getContentLength(connection);
+                if (contentLength > mMaxBodyBytes) {
+                    throw new ResponseTooLargeException(request + " has a body of "
+                            + contentLength + " bytes, the limit is " + mMaxBodyBytes);
+                }
+
+                body = new BufferedInputStream(body, BufferPool.BUFFER_SIZE);
+                if (ENCODING_GZIP.equalsIgnoreCase(
+                        connection.getHeaderField(HEADER_CONTENT_ENCODING))) {
+                    body = new GZIPInputStream(body);
+                }
+                /* bounds the decompressed size, so a small gzip body can't expand without
+                 * limit either. */
+                body = new BoundedInputStream(body, mMaxBodyBytes);
+            }
+
+            if (cancellationToken != null) {
+                if (body != null) {
+                    /* the body can still be cancelled while it is read */
+                    body = new CancelableInputStream(body, cancellationToken, onCancelListener);
+                } else {
+                    cancellationToken.removeListener(onCancelListener);
+                }
+            }
+            return new HttpResponse(statusCode, connection.getHeaderFields(), body);
+        } catch (IOException e) {
+            /* the connection is in an unknown state, so don't let it go back to the pool. */
+            connection.disconnect();
+            if (cancellationToken != null) {
+                cancellationToken.removeListener(onCancelListener);
+                /* report the cancellation rather than the socket error it caused */
+                cancellationToken.throwIfCanceled();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return The Content-Length of the response or -1 if it is unknown.
+     */
+    private static long getContentLength(HttpURLConnection connection) {
+        String contentLength = connection.getHeaderField(HEADER_CONTENT_LENGTH);
+        if (contentLength == null) return -1;
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Body stream that reports reads failing because of a cancellation as such, and stops
+     * listening for the cancellation once the body is closed.
+     */
+    private static class CancelableInputStream extends FilterInputStream {
+        private final CancellationToken mCancellationToken;
+        private final CancellationToken.OnCancelListener mOnCancelListener;
+
+        CancelableInputStream(InputStream in, CancellationToken cancellationToken,
+                              CancellationToken.OnCancelListener onCancelListener) {
+            super(in);
+            mCancellationToken = cancellationToken;
+            mOnCancelListener = onCancelListener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                mCancellationToken.throwIfCanceled();
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                return super.read(buffer, offset, length);
+            } catch (IOException e) {
+                mCancellationToken.throwIfCanceled();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mCancellationToken.removeListener(mOnCancelListener);
+            super.close();
+        }
+    }
+}
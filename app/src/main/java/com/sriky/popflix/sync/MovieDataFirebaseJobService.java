@@ -20,6 +20,12 @@ import android.util.Log;
 
 import com.firebase.jobdispatcher.JobParameters;
 import com.firebase.jobdispatcher.JobService;
+import com.sriky.popflix.network.CancellationToken;
+import com.sriky.popflix.network.HttpRequest;
+import com.sriky.popflix.utilities.ImageSizeUtils;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Job to periodically fetch movie data from the API.
@@ -28,8 +34,13 @@ import com.firebase.jobdispatcher.JobService;
 public class MovieDataFirebaseJobService extends JobService {
     private static final String TAG = MovieDataFirebaseJobService.class.getSimpleName();
 
-    /* async task to fetch the movie data in the background */
-    private AsyncTask<Void, Void, Void> mfetchMovieDataTask;
+    /* async tasks fetching the movie data in the background, by job tag. The jobs of the
+     * categories run at the same time. Only accessed on the main thread. */
+    private final Map<String, AsyncTask<Void, Void, Void>> mFetchMovieDataTasks =
+            new HashMap<>();
+
+    /* stop the requests of the syncs when their job is stopped, by job tag */
+    private final Map<String, CancellationToken> mCancellationTokens = new HashMap<>();
 
     /**
      * Starting point for the job. Contains implementation to offload the work onto to another thread.
@@ -38,20 +49,35 @@ public class MovieDataFirebaseJobService extends JobService {
      */
     @Override
     public boolean onStartJob(final JobParameters job) {
-        mfetchMovieDataTask = new AsyncTask<Void, Void, Void>() {
+        final String tag = job.getTag();
+        final CancellationToken cancellationToken = new CancellationToken();
+        AsyncTask<Void, Void, Void> fetchMovieDataTask = new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... voids) {
-                Log.d(TAG, "doInBackground()");
-                MovieDataSyncTask.fetchMovieData(getApplicationContext(), job.getTag());
+                Log.d(TAG, "doInBackground() " + tag);
+                /* periodic sync, yields to anything the user is waiting on */
+                MovieDataSyncTask.fetchMovieData(getApplicationContext(), tag,
+                        HttpRequest.Priority.SYNC, cancellationToken);
+                ImageSizeUtils.refreshConfigurationIfStale(getApplicationContext());
                 return null;
             }
 
             @Override
             protected void onPostExecute(Void aVoid) {
+                removeJob(tag, this);
                 jobFinished(job, false);
             }
+
+            @Override
+            protected void onCancelled(Void aVoid) {
+                /* the job was stopped, it is rescheduled rather than finished */
+                removeJob(tag, this);
+            }
         };
-        mfetchMovieDataTask.execute();
+        mFetchMovieDataTasks.put(tag, fetchMovieDataTask);
+        mCancellationTokens.put(tag, cancellationToken);
+        /* the default serial executor would hold up the UI's AsyncTasks for the whole sync */
+        fetchMovieDataTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         return true;
     }
 
@@ -63,9 +89,30 @@ public class MovieDataFirebaseJobService extends JobService {
      */
     @Override
     public boolean onStopJob(JobParameters job) {
-        if (mfetchMovieDataTask != null) {
-            mfetchMovieDataTask.cancel(true);
+        String tag = job.getTag();
+        /* interrupting the task alone would leave the page requests running until they
+         * time out, this closes their sockets. */
+        CancellationToken cancellationToken = mCancellationTokens.remove(tag);
+        if (cancellationToken != null) {
+            cancellationToken.cancel();
+        }
+        AsyncTask<Void, Void, Void> fetchMovieDataTask = mFetchMovieDataTasks.remove(tag);
+        if (fetchMovieDataTask != null) {
+            fetchMovieDataTask.cancel(true);
         }
         return true;
     }
+
+    /**
+     * Forgets the job's task and token, unless the job was started again since.
+     *
+     * @param tag  The tag of the job.
+     * @param task The task of the job.
+     */
+    private void removeJob(String tag, AsyncTask<Void, Void, Void> task) {
+        if (mFetchMovieDataTasks.get(tag) == task) {
+            mFetchMovieDataTasks.remove(tag);
+            mCancellationTokens.remove(tag);
+        }
+    }
 }
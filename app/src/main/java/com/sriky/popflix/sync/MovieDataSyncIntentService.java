@@ -20,6 +20,8 @@ import android.content.Intent;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.sriky.popflix.utilities.ImageSizeUtils;
+
 /**
  * Subclass of {@link IntentService} to fetch movie data in the background
  */
@@ -41,5 +43,7 @@ public class MovieDataSyncIntentService extends IntentService {
             Log.d(TAG, "onHandleIntent() queryPath : " + queryPath);
             MovieDataSyncTask.fetchMovieData(this, queryPath);
         }
+        /* after the movies, the grid shouldn't wait on it */
+        ImageSizeUtils.refreshConfigurationIfStale(this);
     }
 }
@@ -15,21 +15,45 @@
 
 package com.sriky.popflix.sync;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.res.Resources;
 import android.database.Cursor;
+import android.os.RemoteException;
 import android.util.Log;
 
 import com.sriky.popflix.R;
+import com.sriky.popflix.data.MoviesContract;
+import com.sriky.popflix.data.MoviesContract.FavouritesEntry;
+import com.sriky.popflix.data.MoviesContract.MovieCategoryEntry;
 import com.sriky.popflix.data.MoviesContract.MoviesEntry;
+import com.sriky.popflix.network.CancellationToken;
+import com.sriky.popflix.network.ConditionalGetTransport;
+import com.sriky.popflix.network.HttpRequest;
+import com.sriky.popflix.network.HttpResponse;
+import com.sriky.popflix.network.SingleFlight;
 import com.sriky.popflix.utilities.MovieDataUtils;
 import com.sriky.popflix.utilities.NetworkUtils;
 
 import java.io.IOException;
-import java.net.URL;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Performs various data syncing tasks.
@@ -39,100 +63,411 @@ public class MovieDataSyncTask {
 
     private static final String TAG = MovieDataSyncTask.class.getSimpleName();
 
-    private static List<String> mFavoritedMovieIdList = new ArrayList<>();
+    /* coalesces concurrent syncs of the same URL and priority, e.g. two runs of the job. */
+    private static final SingleFlight<Void> sSyncFlights = new SingleFlight<>();
+
+    /* serializes the writes of the syncs to the movies table across categories. */
+    private static final Object sMoviesTableLock = new Object();
+
+    /* upper bound on the number of pages downloaded at the same time, as many as the
+     * transport's dispatcher lets in flight. More threads would only block in it. */
+    private static final int MAX_CONCURRENT_PAGE_FETCHES = 4;
+
+    /* orders the queued page fetches of the same priority by arrival */
+    private static final AtomicLong sPageFetchSequence = new AtomicLong();
+
+    /* workers shared by all the syncs to fetch pages. Queued pages are taken highest priority
+     * first, so the pages of a more urgent sync never wait behind a background one here. */
+    private static final ExecutorService sPageFetchExecutor = new ThreadPoolExecutor(
+            MAX_CONCURRENT_PAGE_FETCHES, MAX_CONCURRENT_PAGE_FETCHES,
+            0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>()) {
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            return new PageFetchTask<>(callable);
+        }
+    };
+
+    /**
+     * Fetch of a single page, see {@link #fetchPage}.
+     */
+    private static abstract class PageFetch implements Callable<Page> {
+        final HttpRequest.Priority priority;
+        final long sequence = sPageFetchSequence.getAndIncrement();
+
+        PageFetch(HttpRequest.Priority priority) {
+            this.priority = priority;
+        }
+    }
 
     /**
-     * Task to fetch movie data from the API
+     * Queued {@link PageFetch}, ordered by priority and then arrival.
+     */
+    private static class PageFetchTask<T> extends FutureTask<T>
+            implements Comparable<PageFetchTask<?>> {
+        private final PageFetch mPageFetch;
+
+        PageFetchTask(Callable<T> callable) {
+            super(callable);
+            mPageFetch = (PageFetch) callable;
+        }
+
+        @Override
+        public int compareTo(PageFetchTask<?> other) {
+            int result = mPageFetch.priority.compareTo(other.mPageFetch.priority);
+            if (result != 0) return result;
+            long sequence = mPageFetch.sequence;
+            long otherSequence = other.mPageFetch.sequence;
+            return sequence < otherSequence ? -1 : (sequence > otherSequence ? 1 : 0);
+        }
+    }
+
+    /**
+     * Result of fetching a single page of a movies list.
+     */
+    private static class Page {
+        /* TRUE when the server answered the conditional request with 304 */
+        boolean notModified;
+        /* the parsed movies, null if the page couldn't be fetched or parsed */
+        ContentValues[] values;
+        /* the request and its(closed) response, whose validators are stored once the page is */
+        HttpRequest request;
+        HttpResponse response;
+    }
+
+    /**
+     * Task to fetch movie data from the API for the grid the user is looking at.
+     *
+     * @param context   Used to get the {@link ContentResolver}
+     * @param queryPath The API path to query.
+     */
+    public static void fetchMovieData(Context context, String queryPath) {
+        fetchMovieData(context, queryPath, HttpRequest.Priority.GRID, null);
+    }
+
+    /**
+     * Task to fetch movie data from the API. If a sync for the same URL is already in flight at
+     * the same priority, the call waits for that sync to complete instead of fetching the data
+     * again.
      *
-     * @param context    Used to get the {@link ContentResolver}
-     * @param queryPath  The API path to query.
+     * @param context   Used to get the {@link ContentResolver}
+     * @param queryPath The API path to query.
+     * @param priority  Priority of the first page, the following pages are fetched at
+     *                  {@link HttpRequest.Priority#PREFETCH} at best.
+     * @param cancellationToken Stops waiting when the caller gives up on the sync, may be null.
+     *                          The requests stop once no caller waits for the sync anymore.
      */
-    synchronized public static void fetchMovieData(Context context, String queryPath) {
+    public static void fetchMovieData(final Context context, final String queryPath,
+                                      final HttpRequest.Priority priority,
+                                      final CancellationToken cancellationToken) {
         /* build the url for the query. */
         String urlStr = NetworkUtils.buildURL(queryPath, MovieDataUtils.TMDB_API_KEY).toString();
-        Log.d(TAG, "loadInBackground: URL = " + urlStr);
+        Log.d(TAG, "fetchMovieData: URL = " + urlStr);
+        /* only syncs of the same priority are merged, so a refresh the user is waiting for never
+         * waits behind a periodic sync at its priority. The shared sync has its own token,
+         * it is only cancelled once every caller gave up on it. */
+        String flightKey = urlStr + "#" + priority.name();
         try {
-            URL url = new URL(urlStr);
-            String responseJSON = NetworkUtils.getStringResponseFromHttpUrl(url);
-            ContentResolver contentResolver = context.getContentResolver();
+            sSyncFlights.execute(flightKey, cancellationToken, new SingleFlight.Call<Void>() {
+                @Override
+                public Void call(CancellationToken sharedToken) throws IOException {
+                    syncMovieData(context, queryPath, priority, sharedToken);
+                    return null;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            /* cache the favorited movieIDs */
-            cacheFavoritedMovies(contentResolver);
+    /**
+     * Fetches the configured number of pages for the queryPath concurrently and replaces the
+     * entries in the movies table with the merged result.
+     *
+     * @param context   Used to get the {@link ContentResolver}
+     * @param queryPath The API path to query.
+     * @param priority  Priority of the first page.
+     * @param cancellationToken Stops the requests in flight, may be null.
+     * @throws IOException Related to network and stream reading.
+     */
+    private static void syncMovieData(Context context, String queryPath,
+                                      HttpRequest.Priority priority,
+                                      CancellationToken cancellationToken) throws IOException {
+        ContentResolver contentResolver = context.getContentResolver();
 
-            /* clear old entries */
-            clearOldEntries(context, contentResolver, queryPath);
+        int pageDepth = getPageDepth(context, queryPath);
+        List<Integer> pageNumbers = new ArrayList<>(pageDepth);
+        for (int page = 1; page <= pageDepth; page++) {
+            pageNumbers.add(page);
+        }
 
-            /* generate content values from the json response for bulk insert into the movies table */
-            ContentValues[] valuesForBulkInsertion = MovieDataUtils
-                    .buildContentValuesArrayfromJSONResponse(context, responseJSON, queryPath);
+        /* revalidate only when the category still has the data from the previous sync,
+         * otherwise a 304 would leave it empty. */
+        boolean conditional = hasEntries(contentResolver, queryPath);
+        Page[] pages = fetchPages(context, queryPath, pageNumbers, conditional,
+                priority, cancellationToken);
 
-             /* add the new data in the movies table. */
-            contentResolver.bulkInsert(MoviesEntry.CONTENT_URI, valuesForBulkInsertion);
+        /* if nothing changed there is nothing to do. If only some pages changed, the
+         * unchanged ones have no body, so fetch those again to rebuild the whole category. */
+        List<Integer> notModifiedPages = new ArrayList<>();
+        for (int i = 0; i < pages.length; i++) {
+            if (pages[i].notModified) {
+                notModifiedPages.add(pageNumbers.get(i));
+            }
+        }
+        if (notModifiedPages.size() == pages.length) {
+            Log.d(TAG, "fetchMovieData: " + queryPath + " not modified, skipping the update.");
+            return;
+        }
+        if (!notModifiedPages.isEmpty()) {
+            Page[] refetchedPages = fetchPages(context, queryPath, notModifiedPages,
+                    false, priority, cancellationToken);
+            for (int i = 0, j = 0; i < pages.length; i++) {
+                if (pages[i].notModified) {
+                    pages[i] = refetchedPages[j++];
+                }
+            }
+        }
 
-            /* updated favorites flag in the table for the movieIDs that was cached */
-            updatedFavorites(contentResolver);
+        /* merge the pages in order. A movie can move across pages between two requests,
+         * keep its first(i.e. highest ranked) occurrence. */
+        Map<Integer, ContentValues> mergedValues = new LinkedHashMap<>();
+        for (Page page : pages) {
+            if (page.values == null) {
+                Log.e(TAG, "fetchMovieData: invalid response, keeping the existing entries.");
+                return;
+            }
+            for (ContentValues cv : page.values) {
+                Integer movieId = cv.getAsInteger(MoviesEntry.MOVIE_ID);
+                if (movieId != null && !mergedValues.containsKey(movieId)) {
+                    mergedValues.put(movieId, cv);
+                }
+            }
+        }
+        ContentValues[] valuesForBulkInsertion =
+                mergedValues.values().toArray(new ContentValues[mergedValues.size()]);
+        Log.d(TAG, "fetchMovieData: " + queryPath + " merged " + valuesForBulkInsertion.length
+                + " movies from " + pages.length + " pages.");
 
-        } catch (IOException e) {
-            e.printStackTrace();
+        /* nobody is waiting for the result anymore, leave the table alone */
+        if (cancellationToken != null) {
+            cancellationToken.throwIfCanceled();
+        }
+
+        synchronized (sMoviesTableLock) {
+            /* hold off the WAL checkpoints until the writes are done */
+            contentResolver.call(MoviesContract.BASE_CONTENT_URI,
+                    MoviesContract.METHOD_BEGIN_SYNC, null, null);
+            try {
+                /* replace the movies of the category(the list's API path), ranked in the
+                 * merged order, all pages in a single transaction. Only the movies that changed
+                 * are written, so the grid never sees the category half synced. */
+                contentResolver.bulkInsert(MoviesEntry.buildCategoryUri(queryPath),
+                        valuesForBulkInsertion);
+                refreshFavourites(contentResolver, mergedValues);
+            } finally {
+                contentResolver.call(MoviesContract.BASE_CONTENT_URI,
+                        MoviesContract.METHOD_END_SYNC, null, null);
+            }
+        }
+
+        /* the pages are stored, so a 304 for them from now on means the category is current */
+        for (Page page : pages) {
+            ConditionalGetTransport.storeValidators(context, page.request, page.response);
         }
     }
 
     /**
-     * Caches the favorited movieIDs.
+     * Refreshes the snapshots of the favourites among the synced movies with their synced
+     * values, all in a single batch so the favourites are notified once.
      *
-     * @param contentResolver The contentResolver used to query the movies table.
+     * @param contentResolver The contentResolver used to update the favourites.
+     * @param syncedValues    The synced movies, by movie ID.
      */
-    private static void cacheFavoritedMovies(ContentResolver contentResolver) {
-        mFavoritedMovieIdList.clear();
-        Cursor cursor = contentResolver.query(MoviesEntry.CONTENT_URI,
-                MovieDataUtils.FAVORITE_MOVIE_DATA_PROJECTION,
-                MoviesEntry.USER_FAVOURITE + " =? ",
-                new String[]{"1"},
+    private static void refreshFavourites(ContentResolver contentResolver,
+                                          Map<Integer, ContentValues> syncedValues) {
+        Cursor cursor = contentResolver.query(FavouritesEntry.CONTENT_URI,
+                new String[]{FavouritesEntry.MOVIE_ID},
+                null,
+                null,
                 null);
-        while (cursor.moveToNext()) {
-            mFavoritedMovieIdList.add(cursor.getString(MovieDataUtils.INDEX_MOVIE_ID));
+        if (cursor == null) return;
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues values = syncedValues.get(cursor.getInt(0));
+                if (values == null) continue;
+                /* the page belongs to the category, not the snapshot */
+                ContentValues snapshotValues = new ContentValues(values);
+                snapshotValues.remove(MovieCategoryEntry.PAGE);
+                operations.add(ContentProviderOperation.newUpdate(
+                        FavouritesEntry.buildFavouriteUriWithId(cursor.getString(0)))
+                        .withValues(snapshotValues)
+                        .build());
+            }
+        } finally {
+            cursor.close();
+        }
+        if (operations.isEmpty()) return;
+
+        try {
+            contentResolver.applyBatch(MoviesContract.CONTENT_AUTHORITY, operations);
+            Log.d(TAG, "refreshFavourites: refreshed " + operations.size() + " favourites.");
+        } catch (RemoteException | OperationApplicationException e) {
+            /* the snapshots are refreshed again with the next sync or the movie's details */
+            e.printStackTrace();
         }
-        cursor.close();
     }
 
     /**
-     * Clear the old entries in the movies table that match the queryPath.
+     * Fetches and parses the supplied pages of the queryPath concurrently.
      *
-     * @param queryPath       The API path from where the data was queried.
-     * @param contentResolver The contentResolver used to query the movies table.
+     * @param queryPath   The API path to query.
+     * @param pageNumbers The pages to fetch.
+     * @param conditional Whether the requests should be revalidated.
+     * @param priority    Priority of the first page.
+     * @param cancellationToken Stops the requests in flight, may be null.
+     * @return The fetched pages, in the order of pageNumbers.
+     * @throws IOException If any of the pages could not be fetched.
+     */
+    private static Page[] fetchPages(final Context context, final String queryPath,
+                                     List<Integer> pageNumbers, final boolean conditional,
+                                     HttpRequest.Priority priority,
+                                     final CancellationToken cancellationToken)
+            throws IOException {
+        List<Callable<Page>> fetchTasks = new ArrayList<>(pageNumbers.size());
+        for (final Integer pageNumber : pageNumbers) {
+            final HttpRequest.Priority pagePriority = getPagePriority(priority, pageNumber);
+            fetchTasks.add(new PageFetch(pagePriority) {
+                @Override
+                public Page call() throws IOException {
+                    return fetchPage(context, queryPath, pageNumber, conditional, pagePriority,
+                            cancellationToken);
+                }
+            });
+        }
+
+        try {
+            List<Future<Page>> futures = sPageFetchExecutor.invokeAll(fetchTasks);
+            Page[] pages = new Page[futures.size()];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = futures.get(i).get();
+            }
+            return pages;
+        } catch (InterruptedException e) {
+            /* the page workers aren't interrupted with us, stop their requests too */
+            if (cancellationToken != null) {
+                cancellationToken.cancel();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + queryPath);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Fetches and parses a single page of the queryPath.
+     *
+     * @param queryPath   The API path to query.
+     * @param pageNumber  The page to fetch.
+     * @param conditional Whether the request should be revalidated.
+     * @param priority    Priority of the request.
+     * @param cancellationToken Stops the request in flight, may be null.
+     * @return The fetched page.
+     * @throws IOException Related to network and stream reading.
      */
-    private static void clearOldEntries(Context context, ContentResolver contentResolver,
-                                        String queryPath) {
-        String selection = null;
+    private static Page fetchPage(Context context, String queryPath, int pageNumber,
+                                  boolean conditional, HttpRequest.Priority priority,
+                                  CancellationToken cancellationToken)
+            throws IOException {
+        HttpRequest request = new HttpRequest(
+                NetworkUtils.buildPageURL(queryPath, MovieDataUtils.TMDB_API_KEY, pageNumber));
+        request.setConditional(conditional);
+        request.setPriority(priority);
+        request.setCancellationToken(cancellationToken);
+
+        HttpResponse response = NetworkUtils.getHttpTransport(context).execute(request);
+        Page page = new Page();
+        page.request = request;
+        page.response = response;
+        /* closed on every path, so a failed parse doesn't leak the connection */
+        try {
+            if (response.isNotModified()) {
+                page.notModified = true;
+            } else if (!response.isSuccessful()) {
+                /* an error body, possibly not even JSON, isn't a page of movies */
+                Log.e(TAG, "fetchPage: failed to fetch page " + pageNumber
+                        + ", status code = " + response.getStatusCode());
+            } else if (response.getBody() == null) {
+                Log.e(TAG, "fetchPage: empty response for page " + pageNumber
+                        + ", status code = " + response.getStatusCode());
+            } else {
+                /* generate content values by streaming the json response. Parsing happens
+                 * while the body is still being downloaded. */
+                page.values = MovieDataUtils.buildContentValuesArrayFromJSONReader(
+                        response.getBodyAsReader(), pageNumber);
+            }
+        } finally {
+            response.close();
+        }
+        return page;
+    }
 
-        if (queryPath.equals(context.getString(R.string.sort_order_popular))) {
-            selection = MoviesEntry.POPULAR + " =? ";
-        } else if (queryPath.equals(context.getString(R.string.sort_order_top_rated))) {
-            selection = MoviesEntry.TOP_RATED + " =? ";
+    /**
+     * The first page fills the visible part of the grid, the following ones are only needed
+     * once the user scrolls, so they never go ahead of {@link HttpRequest.Priority#PREFETCH}.
+     *
+     * @param priority   Priority of the sync.
+     * @param pageNumber The 1 based page number.
+     * @return The priority to fetch the page at.
+     */
+    private static HttpRequest.Priority getPagePriority(HttpRequest.Priority priority,
+                                                        int pageNumber) {
+        if (pageNumber > 1 && priority.compareTo(HttpRequest.Priority.PREFETCH) < 0) {
+            return HttpRequest.Priority.PREFETCH;
         }
+        return priority;
+    }
 
-        /* delete old entries in the table */
-        contentResolver.delete(MoviesEntry.CONTENT_URI,
-                selection,
-                new String[]{"1"});
+    /**
+     * Returns the number of pages to fetch for the queryPath, as configured per list in the
+     * resources, or the default for a list that isn't configured.
+     *
+     * @param queryPath The API path to query.
+     * @return The number of pages.
+     */
+    private static int getPageDepth(Context context, String queryPath) {
+        Resources resources = context.getResources();
+        String[] categories = resources.getStringArray(R.array.sync_page_depth_categories);
+        int[] pageDepths = resources.getIntArray(R.array.sync_page_depths);
+        for (int i = 0; i < categories.length; i++) {
+            if (categories[i].equals(queryPath)) {
+                return pageDepths[i];
+            }
+        }
+        return resources.getInteger(R.integer.sync_page_depth_default);
     }
 
     /**
-     * Update the favorite column for the cached movieIDs that were cahched.
+     * Checks whether the movies table has any entries for the queryPath.
      *
+     * @param queryPath       The API path from where the data was queried.
      * @param contentResolver The contentResolver used to query the movies table.
+     * @return TRUE if there is at least one entry for the queryPath.
      */
-    private static void updatedFavorites(ContentResolver contentResolver) {
-        for (String movieId : mFavoritedMovieIdList) {
-            ContentValues contentValues = new ContentValues();
-            contentValues.put(MoviesEntry.USER_FAVOURITE, 1);
-            int numRecordsUpdated = contentResolver.update(MoviesEntry.buildMovieUriWithId(movieId),
-                    contentValues,
-                    null,
-                    null);
-
-            Log.d(TAG, "updatedFavorites() numRecordsUpdated : " + numRecordsUpdated
-                    + " for movieId : " + movieId);
-        }
+    private static boolean hasEntries(ContentResolver contentResolver, String queryPath) {
+        Cursor cursor = contentResolver.query(MoviesEntry.buildCategoryUri(queryPath),
+                new String[]{MoviesEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) return false;
+        boolean hasEntries = cursor.getCount() > 0;
+        cursor.close();
+        return hasEntries;
     }
 }
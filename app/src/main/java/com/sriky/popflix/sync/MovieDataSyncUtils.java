@@ -26,7 +26,6 @@ import com.firebase.jobdispatcher.GooglePlayDriver;
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.Lifetime;
 import com.firebase.jobdispatcher.Trigger;
-import com.sriky.popflix.R;
 import com.sriky.popflix.data.MoviesContract;
 
 import java.util.ArrayList;
@@ -93,26 +92,16 @@ public class MovieDataSyncUtils {
         /* initiate the job that will periodically fetch the latest data. */
         scheduleFirebaseFetchJob(context, queryPath);
 
-        final String selection;
-
-        if (queryPath.equals(context.getString(R.string.sort_order_popular))) {
-            selection = MoviesContract.MoviesEntry.POPULAR + " =? ";
-        } else if (queryPath.equals(context.getString(R.string.sort_order_top_rated))) {
-            selection = MoviesContract.MoviesEntry.TOP_RATED + " =? ";
-        } else {
-            throw new RuntimeException("Unsupported queryPath: " + queryPath);
-        }
-
         /* check if the data exists in the local database. If not trigger the service to fetch data */
         Thread checkForEmpty = new Thread(new Runnable() {
             @Override
             public void run() {
                 String[] projectionColumns = {MoviesContract.MoviesEntry._ID};
                 Cursor cursor = context.getContentResolver().query(
-                        MoviesContract.MoviesEntry.CONTENT_URI,
+                        MoviesContract.MoviesEntry.buildCategoryUri(queryPath),
                         projectionColumns,
-                        selection,
-                        new String[]{"1"},
+                        null,
+                        null,
                         null);
                 if (cursor == null || cursor.getCount() == 0) {
                     fetchDataImmediately(context, queryPath);
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2017 Srikanth Basappa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sriky.popflix.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.sriky.popflix.network.HttpRequest;
+import com.sriky.popflix.network.HttpResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the TMDB image size to download for a view.
+ * <p>
+ * The available poster sizes come from TMDB's /configuration and are cached in the shared
+ * preferences, TMDB recommends refreshing them every few days. The size is chosen per request
+ * from the measured width of the target view: the smallest size at least as wide as the view,
+ * so posters are never upscaled. On metered networks a slightly narrower size is accepted to
+ * save data.
+ * </p>
+ */
+
+public final class ImageSizeUtils {
+    private static final String TAG = ImageSizeUtils.class.getSimpleName();
+
+    private static final String PREFERENCES_NAME = "tmdb_configuration";
+    private static final String PREF_KEY_POSTER_SIZES = "poster_sizes";
+    private static final String PREF_KEY_FETCHED_AT = "fetched_at";
+    private static final long CONFIGURATION_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(3);
+
+    private static final String JSON_KEY_IMAGES = "images";
+    private static final String JSON_KEY_POSTER_SIZES = "poster_sizes";
+
+    /* TMDB's poster sizes at the time of writing, used until /configuration has been fetched */
+    private static final String DEFAULT_POSTER_SIZES = "w92,w154,w185,w342,w500,w780,original";
+    /* the size that is not a width, i.e. the full resolution upload */
+    private static final String SIZE_ORIGINAL = "original";
+
+    /* on metered networks a poster may be this much narrower than the view */
+    private static final float METERED_WIDTH_FACTOR = 0.8f;
+
+    /* widths of the sized posters in ascending order, parsed from the cached configuration */
+    private static int[] sPosterWidths;
+
+    private ImageSizeUtils() {
+    }
+
+    /**
+     * Returns the size path(e.g. "w342") for a poster displayed in the supplied view.
+     *
+     * @param context Used to access the cached configuration and the network state.
+     * @param view    The view the poster is loaded into.
+     * @return The TMDB size path.
+     */
+    public static String getPosterSizePath(Context context, View view) {
+        return getPosterSizePath(context, getTargetWidth(view));
+    }
+
+    /**
+     * Returns the size path(e.g. "w342") for a poster to be displayed at the supplied width.
+     *
+     * @param context       Used to access the cached configuration and the network state.
+     * @param targetWidthPx Width(pixels) the poster is displayed at.
+     * @return The TMDB size path.
+     */
+    public static String getPosterSizePath(Context context, int targetWidthPx) {
+        boolean metered = isMetered(context);
+        if (metered) {
+            targetWidthPx = Math.round(targetWidthPx * METERED_WIDTH_FACTOR);
+        }
+
+        int[] widths = getPosterWidths(context);
+        for (int width : widths) {
+            if (width >= targetWidthPx) {
+                return "w" + width;
+            }
+        }
+        /* wider than every sized poster. The original is too heavy for a metered network. */
+        return metered ? "w" + widths[widths.length - 1] : SIZE_ORIGINAL;
+    }
+
+    /**
+     * Fetches TMDB's /configuration and caches the poster sizes, unless the cached ones are
+     * recent enough. Performs network I/O, call it from a background thread.
+     *
+     * @param context Used to access the transport and the shared preferences.
+     */
+    public static void refreshConfigurationIfStale(Context context) {
+        SharedPreferences preferences = getPreferences(context);
+        long fetchedAt = preferences.getLong(PREF_KEY_FETCHED_AT, 0);
+        if (System.currentTimeMillis() - fetchedAt < CONFIGURATION_MAX_AGE_MILLIS) return;
+
+        URL url = NetworkUtils.buildConfigurationURL(MovieDataUtils.TMDB_API_KEY);
+        try {
+            HttpRequest request = new HttpRequest(url);
+            request.setPriority(HttpRequest.Priority.PREFETCH);
+            HttpResponse response = NetworkUtils.getHttpTransport(context).execute(request);
+            if (!response.isSuccessful()) {
+                Log.w(TAG, "refreshConfigurationIfStale: status code = "
+                        + response.getStatusCode());
+                response.close();
+                return;
+            }
+
+            JSONArray sizes = new JSONObject(response.getBodyAsString())
+                    .getJSONObject(JSON_KEY_IMAGES)
+                    .getJSONArray(JSON_KEY_POSTER_SIZES);
+            List<String> posterSizes = new ArrayList<>(sizes.length());
+            for (int i = 0; i < sizes.length(); i++) {
+                posterSizes.add(sizes.getString(i));
+            }
+            preferences.edit()
+                    .putString(PREF_KEY_POSTER_SIZES, TextUtils.join(",", posterSizes))
+                    .putLong(PREF_KEY_FETCHED_AT, System.currentTimeMillis())
+                    .apply();
+            synchronized (ImageSizeUtils.class) {
+                sPosterWidths = null;
+            }
+            Log.d(TAG, "refreshConfigurationIfStale: poster sizes = " + posterSizes);
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the width the view is (or will be) displayed at. Falls back on the layout params
+     * and then half the screen width when the view hasn't been measured yet.
+     */
+    private static int getTargetWidth(View view) {
+        if (view.getWidth() > 0) return view.getWidth();
+
+        ViewGroup.LayoutParams layoutParams = view.getLayoutParams();
+        if (layoutParams != null && layoutParams.width > 0) return layoutParams.width;
+
+        return view.getResources().getDisplayMetrics().widthPixels / 2;
+    }
+
+    private static synchronized int[] getPosterWidths(Context context) {
+        if (sPosterWidths == null) {
+            String posterSizes = getPreferences(context)
+                    .getString(PREF_KEY_POSTER_SIZES, DEFAULT_POSTER_SIZES);
+            List<Integer> widths = new ArrayList<>();
+            for (String size : posterSizes.split(",")) {
+                /* sized posters are "w" followed by the width, skip "original" and the like */
+                if (size.length() > 1 && size.charAt(0) == 'w'
+                        && TextUtils.isDigitsOnly(size.substring(1))) {
+                    widths.add(Integer.parseInt(size.substring(1)));
+                }
+            }
+            if (widths.isEmpty()) {
+                Log.w(TAG, "getPosterWidths: no usable sizes in " + posterSizes);
+                widths.add(185);
+            }
+
+            int[] sorted = new int[widths.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = widths.get(i);
+            }
+            Arrays.sort(sorted);
+            sPosterWidths = sorted;
+        }
+        return sPosterWidths;
+    }
+
+    private static boolean isMetered(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager)
+                context.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+        return connectivityManager != null && connectivityManager.isActiveNetworkMetered();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -16,11 +16,12 @@
 package com.sriky.popflix.utilities;
 
 import android.content.ContentValues;
-import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
 import com.sriky.popflix.BuildConfig;
-import com.sriky.popflix.R;
+import com.sriky.popflix.data.MoviesContract.MovieCategoryEntry;
 import com.sriky.popflix.data.MoviesContract.MoviesEntry;
 import com.sriky.popflix.parcelables.MovieReview;
 import com.sriky.popflix.parcelables.MovieTrailer;
@@ -29,6 +30,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 
 /**
@@ -41,7 +45,6 @@ public final class MovieDataUtils {
     //async task loader IDs.
     public static final int BASIC_MOVIE_DATA_LOADER_ID = 100;
     public static final int DETAIL_MOVIE_DATA_LOADER_ID = 101;
-    public static final int REVIEWS_DATA_LOADER_ID = 102;
     public static final int FAVORITES_MOVIES_LOADER_ID = 103;
 
     //URL keys for sending and retrieving urls with the "FetchMovieDataTaskLoader".
@@ -53,11 +56,6 @@ public final class MovieDataUtils {
             MoviesEntry.MOVIE_POSTER_PATH,
     };
 
-    /* project array used to query favorited movie data from movies table. */
-    public static final String[] FAVORITE_MOVIE_DATA_PROJECTION = {
-            MoviesEntry.MOVIE_ID,
-    };
-
     /* indexes for get the column data from the cursor. */
     public static final int INDEX_MOVIE_ID = 0;
     public static final int INDEX_POSTER_PATH = 1;
@@ -81,164 +79,361 @@ public final class MovieDataUtils {
     private static final String JSON_KEY_MOVIE_REVIEW_CONTENT = "content";
     private static final String JSON_KEY_STATUS_MESSAGE = "status_message";
     private static final String JSON_KEY_STATUS_CODE = "status_code";
-
-    //the Uri path that determine the width of the poster thumbnail.
-    private static String sQueryThumbnailWidthPath = "w185";//default.;
+    private static final String JSON_KEY_APPENDED_VIDEOS = "videos";
+    private static final String JSON_KEY_APPENDED_REVIEWS = "reviews";
 
     /**
-     * Returns the closest possible width query path supported by TMDB.
+     * Parses the response of the combined movie details request, i.e. the movie itself with
+     * its videos and reviews appended.
      *
-     * @param thumbnailWidth - desired width to display movie posters.
+     * @param responseJSON The JSON response from the API.
+     * @return {@link MovieDetails} or null if the response was invalid.
      */
-    public static void setThumbnailQueryPath(int thumbnailWidth) {
-        Log.d(TAG, "setThumbnailQueryPath: thumbnailWidth = " + thumbnailWidth);
-        if (thumbnailWidth <= 0) {
-            Log.w(TAG, "setThumbnailQueryPath: thumbnailWidth = " + thumbnailWidth + " in incorrect, will use default w185!");
-        }
+    public static MovieDetails getMovieDetails(String responseJSON) {
+        try {
+            JSONObject data = new JSONObject(responseJSON);
+            //validate the response from the server.
+            if (isResponseValid(data)) {
+                /* only the columns owned by the API, which the movie row and its favourite
+                 * snapshot share, so the same values update both. */
+                ContentValues cv = new ContentValues();
+                cv.put(MoviesEntry.MOVIE_ID, data.getInt(JSON_KEY_MOVIE_ID));
+                cv.put(MoviesEntry.MOVIE_TITLE, getStringOrEmpty(data, JSON_KEY_MOVIE_TITLE));
+                cv.put(MoviesEntry.MOVIE_POSTER_PATH,
+                        getStringOrEmpty(data, JSON_KEY_MOVIE_POSTER_PATH));
+                cv.put(MoviesEntry.MOVIE_OVERVIEW, getStringOrEmpty(data, JSON_KEY_MOVIE_OVERVIEW));
+                putReleaseDate(cv, getStringOrEmpty(data, JSON_KEY_MOVIE_RELEASE_DATE));
+                cv.put(MoviesEntry.MOVIE_VOTE_AVERAGE, data.getDouble(JSON_KEY_MOVIE_VOTE_AVERAGE));
+                cv.put(MoviesEntry.MOVIE_VOTE_COUNT, data.getInt(JSON_KEY_MOVIE_VOTE_COUNT));
 
-        if (thumbnailWidth > 0 && thumbnailWidth <= 92) {
-            sQueryThumbnailWidthPath = "w92";
-        } else if (thumbnailWidth > 92 && thumbnailWidth <= 154) {
-            sQueryThumbnailWidthPath = "w154";
-        } else if (thumbnailWidth > 154 && thumbnailWidth <= 185) {
-            sQueryThumbnailWidthPath = "w185";
-        } else if (thumbnailWidth > 185 && thumbnailWidth <= 342) {
-            sQueryThumbnailWidthPath = "w342";
-        } else if (thumbnailWidth > 342 && thumbnailWidth <= 500) {
-            sQueryThumbnailWidthPath = "w500";
-        } else if (thumbnailWidth > 500) {
-            sQueryThumbnailWidthPath = "w780";
-        }
-    }
+                ArrayList<MovieTrailer> movieTrailers = new ArrayList<>();
+                JSONObject videos = data.optJSONObject(JSON_KEY_APPENDED_VIDEOS);
+                if (videos != null) {
+                    movieTrailers = getMovieTrailers(videos);
+                }
 
-    /**
-     * The support width path calculated based on the width of the screen and number of gird columns.
-     *
-     * @return path to the query url that specifies the width supported by TMDB.
-     */
-    public static String getQueryThumbnailWidthPath() {
-        return sQueryThumbnailWidthPath;
+                ArrayList<MovieReview> movieReviews = new ArrayList<>();
+                JSONObject reviews = data.optJSONObject(JSON_KEY_APPENDED_REVIEWS);
+                if (reviews != null) {
+                    movieReviews = getMovieReviews(reviews);
+                }
+
+                return new MovieDetails(cv, movieTrailers, movieReviews);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return null;
     }
 
     /**
-     * Generates an ArrayList of {@link MovieTrailer} objects from the responseJSON from the API.
+     * Generates an ArrayList of {@link MovieTrailer} objects from the videos JSON object.
      *
-     * @param responseJSON The JSON response from the API.
+     * @param videos The videos object appended to the movie details.
      * @return ArrayList of {@link MovieTrailer} objects.
+     * @throws JSONException when the JSON is malformed.
      */
-    public static ArrayList<MovieTrailer> getMovieTrailers(String responseJSON) {
+    private static ArrayList<MovieTrailer> getMovieTrailers(JSONObject videos)
+            throws JSONException {
         ArrayList<MovieTrailer> movieTrailers = new ArrayList<>();
-        try {
-            //validate the response from the server.
-            if (isResponseValid(responseJSON)) {
-                JSONObject moviesData = new JSONObject(responseJSON);
-                JSONArray jsonArrayResults = moviesData.getJSONArray(JSON_KEY_ARRAY_RESULTS);
-                if (jsonArrayResults != null) {
-                    for (int i = 0; i < jsonArrayResults.length(); i++) {
-                        JSONObject data = (JSONObject) jsonArrayResults.get(i);
-                        MovieTrailer movieTrailer = new MovieTrailer(
-                                data.getString(JSON_KEY_MOVIE_VIDEO_ID),
-                                data.getString(JSON_KEY_MOVIE_VIDEO_KEY),
-                                data.getString(JSON_KEY_MOVIE_VIDEO_NAME),
-                                data.getString(JSON_KEY_MOVIE_VIDEO_SITE));
-                        movieTrailers.add(movieTrailer);
-                    }
-                }
+        JSONArray jsonArrayResults = videos.getJSONArray(JSON_KEY_ARRAY_RESULTS);
+        if (jsonArrayResults != null) {
+            for (int i = 0; i < jsonArrayResults.length(); i++) {
+                JSONObject data = (JSONObject) jsonArrayResults.get(i);
+                MovieTrailer movieTrailer = new MovieTrailer(
+                        data.getString(JSON_KEY_MOVIE_VIDEO_ID),
+                        data.getString(JSON_KEY_MOVIE_VIDEO_KEY),
+                        data.getString(JSON_KEY_MOVIE_VIDEO_NAME),
+                        data.getString(JSON_KEY_MOVIE_VIDEO_SITE));
+                movieTrailers.add(movieTrailer);
             }
-        } catch (JSONException e) {
-            e.printStackTrace();
         }
         return movieTrailers;
     }
 
     /**
-     * Generates an array list of {@link MovieReview} objects from supplied the JSONResponse string.
+     * Generates an array list of {@link MovieReview} objects from the reviews JSON object.
      *
-     * @param responseJSON The JSON response from the API.
+     * @param reviews The reviews object appended to the movie details.
      * @return ArrayList of {@link MovieReview} objects.
+     * @throws JSONException when the JSON is malformed.
      */
-    public static ArrayList<MovieReview> getMovieReviews(String responseJSON) {
+    private static ArrayList<MovieReview> getMovieReviews(JSONObject reviews)
+            throws JSONException {
         ArrayList<MovieReview> movieReviews = new ArrayList<>();
-        try {
-            //validate the response from the server.
-            if (isResponseValid(responseJSON)) {
-                JSONObject moviesData = new JSONObject(responseJSON);
-                JSONArray jsonArrayResults = moviesData.getJSONArray(JSON_KEY_ARRAY_RESULTS);
-                if (jsonArrayResults != null) {
-                    for (int i = 0; i < jsonArrayResults.length(); i++) {
-                        JSONObject data = (JSONObject) jsonArrayResults.get(i);
-                        MovieReview movieReview = new MovieReview(
-                                data.getString(JSON_KEY_MOVIE_VIDEO_ID),
-                                data.getString(JSON_KEY_MOVIE_REVIEW_AUTHOR),
-                                data.getString(JSON_KEY_MOVIE_REVIEW_CONTENT));
-                        movieReviews.add(movieReview);
-                    }
-                }
+        JSONArray jsonArrayResults = reviews.getJSONArray(JSON_KEY_ARRAY_RESULTS);
+        if (jsonArrayResults != null) {
+            for (int i = 0; i < jsonArrayResults.length(); i++) {
+                JSONObject data = (JSONObject) jsonArrayResults.get(i);
+                MovieReview movieReview = new MovieReview(
+                        data.getString(JSON_KEY_MOVIE_VIDEO_ID),
+                        data.getString(JSON_KEY_MOVIE_REVIEW_AUTHOR),
+                        data.getString(JSON_KEY_MOVIE_REVIEW_CONTENT));
+                movieReviews.add(movieReview);
             }
-        } catch (JSONException e) {
-            e.printStackTrace();
         }
         return movieReviews;
     }
 
+    /**
+     * Returns the string for the key, treating missing keys and JSON null as an empty string.
+     */
+    private static String getStringOrEmpty(JSONObject data, String key) throws JSONException {
+        return data.isNull(key) ? "" : data.getString(key);
+    }
+
     /**
      * Builds the {@link ContentValues} Array from the JSON response string.
      *
      * @param queryResult The JSON response string from the API.
+     * @param page        The page of the list the response is for.
      * @return {@link ContentValues} Array. Caller to expect and handle null for the return.
      */
-    public static ContentValues[] buildContentValuesArrayfromJSONResponse(Context context,
-                                                                          String queryResult, String sort_order) {
+    public static ContentValues[] buildContentValuesArrayfromJSONResponse(String queryResult,
+                                                                          int page) {
+        return buildContentValuesArrayFromJSONReader(new StringReader(queryResult), page);
+    }
+
+    /**
+     * Reads the movies list response token by token and creates a {@link ContentValues} per
+     * movie as soon as its object has been read. Used with the response body reader, the
+     * payload is parsed while it is downloaded and never held as a String or a JSON DOM.
+     * The movies are in the list's order, each with the {@link MovieCategoryEntry#PAGE}.
+     *
+     * @param in   Reader supplying the JSON response. The reader is closed by this method.
+     * @param page The page of the list the response is for.
+     * @return {@link ContentValues} Array or null if the response was invalid.
+     */
+    public static ContentValues[] buildContentValuesArrayFromJSONReader(Reader in, int page) {
+        JsonReader reader = new JsonReader(in);
         try {
-            //validate the response from the server.
-            if (isResponseValid(queryResult)) {
-                JSONObject moviesData = new JSONObject(queryResult);
-                JSONArray jsonArrayResults = moviesData.getJSONArray(JSON_KEY_ARRAY_RESULTS);
-                if (jsonArrayResults != null) {
-                    ContentValues[] contentValuesArray = new ContentValues[jsonArrayResults.length()];
-                    for (int i = 0; i < jsonArrayResults.length(); i++) {
-                        JSONObject data = (JSONObject) jsonArrayResults.get(i);
-                        ContentValues cv = new ContentValues();
-                        cv.put(MoviesEntry.MOVIE_ID, data.getInt(JSON_KEY_MOVIE_ID));
-                        cv.put(MoviesEntry.MOVIE_TITLE, data.getString(JSON_KEY_MOVIE_TITLE));
-                        cv.put(MoviesEntry.MOVIE_POSTER_PATH, data.getString(JSON_KEY_MOVIE_POSTER_PATH));
-                        cv.put(MoviesEntry.MOVIE_OVERVIEW, data.getString(JSON_KEY_MOVIE_OVERVIEW));
-                        cv.put(MoviesEntry.MOVIE_RELEASE_DATE, data.getString(JSON_KEY_MOVIE_RELEASE_DATE));
-                        cv.put(MoviesEntry.MOVIE_VOTE_AVERAGE, data.getDouble(JSON_KEY_MOVIE_VOTE_AVERAGE));
-                        cv.put(MoviesEntry.MOVIE_VOTE_COUNT, data.getInt(JSON_KEY_MOVIE_VOTE_COUNT));
-                        if (sort_order.equals(context.getString(R.string.sort_order_popular))) {
-                            cv.put(MoviesEntry.POPULAR, 1);
-                        } else if (sort_order.equals(context.getString(R.string.sort_order_top_rated))) {
-                            cv.put(MoviesEntry.TOP_RATED, 1);
-                        }
-                        contentValuesArray[i] = cv;
+            ArrayList<ContentValues> contentValuesList = null;
+            String statusCode = null;
+            String statusMsg = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (JSON_KEY_ARRAY_RESULTS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    contentValuesList = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        ContentValues cv = readMovieContentValues(reader);
+                        cv.put(MovieCategoryEntry.PAGE, page);
+                        contentValuesList.add(cv);
                     }
-                    return contentValuesArray;
+                    reader.endArray();
+                } else if (JSON_KEY_STATUS_CODE.equals(name)) {
+                    statusCode = nextStringOrEmpty(reader);
+                } else if (JSON_KEY_STATUS_MESSAGE.equals(name)) {
+                    statusMsg = nextStringOrEmpty(reader);
+                } else {
+                    reader.skipValue();
                 }
             }
-        } catch (JSONException e) {
+            reader.endObject();
+
+            //validate the response from the server.
+            if (statusCode != null || statusMsg != null) {
+                Log.e(TAG, "buildContentValuesArrayFromJSONReader: Bad Response from server, "
+                        + "where status code = " + statusCode + ", status message = " + statusMsg);
+                return null;
+            }
+
+            if (contentValuesList != null) {
+                return contentValuesList.toArray(new ContentValues[contentValuesList.size()]);
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            /* JsonReader reports malformed JSON through these exceptions. */
             e.printStackTrace();
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
         return null;
     }
 
     /**
-     * Validates the response from the TMDB server.
+     * Reads a single movie object from the results array.
+     *
+     * @param reader JsonReader positioned at the start of a movie object.
+     * @return {@link ContentValues} for the movies table.
+     * @throws IOException when the JSON is malformed.
+     */
+    private static ContentValues readMovieContentValues(JsonReader reader) throws IOException {
+        ContentValues cv = new ContentValues();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case JSON_KEY_MOVIE_ID:
+                    cv.put(MoviesEntry.MOVIE_ID, reader.nextInt());
+                    break;
+                case JSON_KEY_MOVIE_TITLE:
+                    cv.put(MoviesEntry.MOVIE_TITLE, reader.nextString());
+                    break;
+                case JSON_KEY_MOVIE_POSTER_PATH:
+                    cv.put(MoviesEntry.MOVIE_POSTER_PATH, reader.nextString());
+                    break;
+                case JSON_KEY_MOVIE_OVERVIEW:
+                    cv.put(MoviesEntry.MOVIE_OVERVIEW, reader.nextString());
+                    break;
+                case JSON_KEY_MOVIE_RELEASE_DATE:
+                    putReleaseDate(cv, reader.nextString());
+                    break;
+                case JSON_KEY_MOVIE_VOTE_AVERAGE:
+                    cv.put(MoviesEntry.MOVIE_VOTE_AVERAGE, reader.nextDouble());
+                    break;
+                case JSON_KEY_MOVIE_VOTE_COUNT:
+                    cv.put(MoviesEntry.MOVIE_VOTE_COUNT, reader.nextInt());
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        /* the movies table doesn't allow nulls for these, TMDB occasionally sends them. */
+        putIfAbsent(cv, MoviesEntry.MOVIE_TITLE);
+        putIfAbsent(cv, MoviesEntry.MOVIE_POSTER_PATH);
+        putIfAbsent(cv, MoviesEntry.MOVIE_OVERVIEW);
+        if (!cv.containsKey(MoviesEntry.MOVIE_RELEASE_DATE)) {
+            putReleaseDate(cv, "");
+        }
+        return cv;
+    }
+
+    /**
+     * Puts the release date as returned by the API, with the release day and year parsed from
+     * it, so neither the queries nor the UI have to parse the date string.
+     *
+     * @param cv          The values of the movie.
+     * @param releaseDate The release date(yyyy-MM-dd), or empty if the API has none.
+     */
+    public static void putReleaseDate(ContentValues cv, String releaseDate) {
+        cv.put(MoviesEntry.MOVIE_RELEASE_DATE, releaseDate);
+
+        /* the day and year are null for anything that isn't a yyyy-MM-dd date, same as the
+         * migration that backfilled them. */
+        int year = parseDigits(releaseDate, 0, 4);
+        int month = parseDigits(releaseDate, 5, 7);
+        int day = parseDigits(releaseDate, 8, 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || releaseDate.charAt(4) != '-' || releaseDate.charAt(7) != '-') {
+            cv.putNull(MoviesEntry.MOVIE_RELEASE_DAY);
+            cv.putNull(MoviesEntry.MOVIE_RELEASE_YEAR);
+        } else {
+            cv.put(MoviesEntry.MOVIE_RELEASE_DAY, toEpochDay(year, month, day));
+            cv.put(MoviesEntry.MOVIE_RELEASE_YEAR, year);
+        }
+    }
+
+    /**
+     * @return The non negative number of the decimal digits from start(inclusive) to
+     * end(exclusive), or -1 if the string is too short or a character isn't a digit.
+     */
+    private static int parseDigits(String s, int start, int end) {
+        if (s.length() < end) return -1;
+        int number = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    /**
+     * Converts a date of the proleptic Gregorian calendar to the number of days since
+     * 1970-01-01, without going through a Calendar and its time zone.
+     *
+     * @param year  The year, non negative.
+     * @param month The month, 1 to 12.
+     * @param day   The day of the month.
+     * @return The number of days since 1970-01-01, negative before it.
+     */
+    private static long toEpochDay(int year, int month, int day) {
+        /* the year starts in March, so the leap day is the last day of the year */
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        /* 719468 is the day of era 0 that is 1970-01-01 */
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Puts an empty string for the key if the {@link ContentValues} doesn't contain it yet.
+     */
+    private static void putIfAbsent(ContentValues cv, String key) {
+        if (!cv.containsKey(key)) {
+            cv.put(key, "");
+        }
+    }
+
+    /**
+     * Reads the next value as a string, treating JSON null as an empty string.
+     */
+    private static String nextStringOrEmpty(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return "";
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Validates the response from the TMDB server. Errors carry a top level status code, only
+     * that key is checked since the appended reviews are free text.
      *
-     * @param response Query response String.
+     * @param response The parsed response.
      * @return TRUE if there were no errors contained in the response.
-     * @throws JSONException when the JSON is malformed.
      */
-    private static boolean isResponseValid(String response) throws JSONException {
-        if ((response.contains(JSON_KEY_STATUS_CODE)) ||
-                (response.contains(JSON_KEY_STATUS_MESSAGE))) {
-            JSONObject responseObject = new JSONObject(response);
-            String statusCode = responseObject.getString(JSON_KEY_STATUS_CODE);
-            String statusMsg = responseObject.getString(JSON_KEY_STATUS_MESSAGE);
+    private static boolean isResponseValid(JSONObject response) {
+        if (response.has(JSON_KEY_STATUS_CODE)) {
+            String statusCode = response.optString(JSON_KEY_STATUS_CODE);
+            String statusMsg = response.optString(JSON_KEY_STATUS_MESSAGE);
             Log.e(TAG, "isResponseValid: Bad Response from server, where status code = "
                     + statusCode + ", status message = " + statusMsg);
             return false;
         }
         return true;
     }
+
+    /**
+     * Holds the result of the combined movie details request.
+     */
+    public static final class MovieDetails {
+        /* values for the API owned columns of the movie's row in the movies table */
+        private final ContentValues mMovieValues;
+        private final ArrayList<MovieTrailer> mMovieTrailers;
+        private final ArrayList<MovieReview> mMovieReviews;
+
+        MovieDetails(ContentValues movieValues, ArrayList<MovieTrailer> movieTrailers,
+                     ArrayList<MovieReview> movieReviews) {
+            mMovieValues = movieValues;
+            mMovieTrailers = movieTrailers;
+            mMovieReviews = movieReviews;
+        }
+
+        public ContentValues getMovieValues() {
+            return mMovieValues;
+        }
+
+        public ArrayList<MovieTrailer> getMovieTrailers() {
+            return mMovieTrailers;
+        }
+
+        public ArrayList<MovieReview> getMovieReviews() {
+            return mMovieReviews;
+        }
+    }
 }
@@ -15,37 +15,99 @@
 
 package com.sriky.popflix.utilities;
 
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.net.Uri;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import com.sriky.popflix.BuildConfig;
+import com.sriky.popflix.network.CachingTransport;
+import com.sriky.popflix.network.CircuitBreakerTransport;
+import com.sriky.popflix.network.ConditionalGetTransport;
+import com.sriky.popflix.network.DiskResponseCache;
+import com.sriky.popflix.network.HedgingTransport;
+import com.sriky.popflix.network.HttpTransport;
+import com.sriky.popflix.network.PriorityDispatchTransport;
+import com.sriky.popflix.network.RateLimitedTransport;
+import com.sriky.popflix.network.TokenBucket;
+import com.sriky.popflix.network.UrlConnectionTransport;
+
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
-import java.util.Scanner;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Helper class(static) to assist in generating URLs and performing API requests.
  */
 public final class NetworkUtils {
     /* TMDB API */
-    private static final String TMDB_BASE_URL = "https://api.themoviedb.org/3/movie";
     private static final String PARAM_QUERY_API_KEP = "api_key";
+    private static final String PARAM_QUERY_PAGE = "page";
+    private static final String PARAM_QUERY_APPEND_TO_RESPONSE = "append_to_response";
     /* path to the videos */
     private static final String PATH_VIDEOS = "videos";
     /* path to reviews */
     private static final String PATH_REVIEWS = "reviews";
+    /* path to the API configuration */
+    private static final String PATH_CONFIGURATION = "configuration";
 
     /* youtube */
     private static final String YOUTUBE_BASE_URL = "https://www.youtube.com";
     private static final String YOUTUBE_VIDEOS_PATH = "watch";
     private static final String YOUTUBE_QUERY_PARAM_KEY = "v";
 
-    //images
-    private static final String TMDA_IMAGE_BASE_URL = "http://image.tmdb.org/t/p";
+    /* connection settings for the shared transport */
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    /* a details response with videos and reviews is well under 100KB, anything this big is
+     * broken and would only waste memory */
+    private static final long MAX_RESPONSE_BODY_BYTES = 2 * 1024 * 1024;
+    /* requests past this wait for a slot in priority order */
+    private static final int MAX_REQUESTS_IN_FLIGHT = 4;
+
+    /* TMDB allows 40 requests every 10 seconds, shared by the sync and the loaders */
+    private static final int RATE_LIMIT_REQUESTS = 40;
+    private static final long RATE_LIMIT_PERIOD_MILLIS = 10000;
+    private static final int MAX_RETRIES = 3;
+    /* at most one in ten hedgeable requests is sent twice */
+    private static final double MAX_HEDGE_RATIO = 0.1;
+    /* hedges don't take a dispatcher slot, this bounds how many requests they add to it */
+    private static final int MAX_HEDGES_IN_FLIGHT = 1;
+
+    /* a host is given up on after this many consecutive failures, and probed again after the
+     * open period, which doubles with every failed probe. */
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 3;
+    private static final long CIRCUIT_MIN_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    private static final long CIRCUIT_MAX_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /* disk cache for the detail screen responses */
+    private static final String RESPONSE_CACHE_DIR = "http-responses";
+    private static final long RESPONSE_CACHE_MAX_BYTES = 4 * 1024 * 1024;
+    /* reviews trickle in, the trailers of a movie hardly ever change */
+    private static final long REVIEWS_CACHE_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+    private static final long VIDEOS_CACHE_TTL_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    /* transport shared by all the API requests */
+    private static HttpTransport sHttpTransport;
+
+    /* base URLs for the API and the images, configured in build.gradle */
+    private static String sTmdbBaseUrl = BuildConfig.TMDB_BASE_URL;
+    private static String sTmdbImageBaseUrl = BuildConfig.TMDB_IMAGE_BASE_URL;
+
+    /**
+     * Points the API and image requests at different hosts, e.g. a local stand-in server used
+     * for benchmarks.
+     *
+     * @param tmdbBaseUrl      Base URL of the movie API, i.e. ending with "/3/movie".
+     * @param tmdbImageBaseUrl Base URL of the images, i.e. ending with "/t/p".
+     */
+    public static void setBaseUrls(String tmdbBaseUrl, String tmdbImageBaseUrl) {
+        sTmdbBaseUrl = tmdbBaseUrl;
+        sTmdbImageBaseUrl = tmdbImageBaseUrl;
+    }
 
     /**
      * Builds and returns Uri from the supplied relative path.
@@ -55,7 +117,7 @@ public final class NetworkUtils {
      * @return complete query Uri to TMDB.
      */
     public static Uri getURLForImageWithRelativePathAndSize(String encodedRelativePath, String imageWidthPath) {
-        return Uri.parse(TMDA_IMAGE_BASE_URL).buildUpon()
+        return Uri.parse(sTmdbImageBaseUrl).buildUpon()
                 .appendPath(imageWidthPath)
                 .appendEncodedPath(encodedRelativePath)
                 .build();
@@ -74,26 +136,53 @@ public final class NetworkUtils {
     }
 
     /**
-     * Builds the URL to query TMDB API for trailer videos.
+     * Builds URL to query a specific page of a movies list(i.e. popular, top_rated).
+     *
+     * @param queryPath The API path of the list.
+     * @param apiKey    API key for TMDB.
+     * @param page      The 1 based page number.
+     * @return URL to query the requested page of the list.
+     */
+    public static URL buildPageURL(String queryPath, String apiKey, int page) {
+        Uri uri = buildUri(apiKey, queryPath).buildUpon()
+                .appendQueryParameter(PARAM_QUERY_PAGE, Integer.toString(page))
+                .build();
+        return buildUrl(uri);
+    }
+
+    /**
+     * Builds the URL to query the details of a movie along with its videos and reviews, so the
+     * details screen needs a single round trip.
      *
      * @param movieId The Movie ID
      * @param apiKey  API key for TMDB.
-     * @return URL to query trailers for the specific movie ID.
+     * @return URL to query the details, trailers and reviews for the specific movie ID.
      */
-    public static URL buildVideosURL(String movieId, String apiKey) {
-        Uri uri = buildUri(apiKey, movieId, PATH_VIDEOS);
+    public static URL buildMovieDetailsURL(String movieId, String apiKey) {
+        Uri uri = buildUri(apiKey, movieId).buildUpon()
+                .appendQueryParameter(PARAM_QUERY_APPEND_TO_RESPONSE,
+                        PATH_VIDEOS + "," + PATH_REVIEWS)
+                .build();
         return buildUrl(uri);
     }
 
     /**
-     * Builds the URL to query API for reviews.
+     * Builds the URL to query TMDB's API configuration, i.e. the available image sizes.
      *
-     * @param movieId The movie ID for which the reviews.
-     * @param apiKey  API key for TMDB.
-     * @return URL to query reviews for the specific movie ID.
+     * @param apiKey API key for TMDB.
+     * @return URL to query the configuration.
      */
-    public static URL buildReviewsURL(String movieId, String apiKey) {
-        Uri uri = buildUri(apiKey, movieId, PATH_REVIEWS);
+    public static URL buildConfigurationURL(String apiKey) {
+        /* the configuration lives next to "movie" rather than under it */
+        Uri baseUri = Uri.parse(sTmdbBaseUrl);
+        List<String> segments = baseUri.getPathSegments();
+        Uri.Builder uriBuilder = baseUri.buildUpon().path("");
+        for (int i = 0; i < segments.size() - 1; i++) {
+            uriBuilder.appendPath(segments.get(i));
+        }
+        Uri uri = uriBuilder.appendPath(PATH_CONFIGURATION)
+                .appendQueryParameter(PARAM_QUERY_API_KEP, apiKey)
+                .build();
         return buildUrl(uri);
     }
 
@@ -111,39 +200,80 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * Returns how long the response for the supplied URL may be served from the disk cache. A
+     * details URL with appended videos and reviews gets the shortest time to live of the two.
      *
-     * @param url The URL to fetch the HTTP response from.
-     * @return The String contents of the HTTP response.
-     * @throws IOException Related to network and stream reading
+     * @param url The request URL.
+     * @return Time to live in millis, 0 if the response shouldn't be cached.
      */
-    public static String getStringResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-        try {
-
-            /* open a connection */
-            URLConnection c = url.openConnection();
-
-            /* Set the connection timeout to 5 seconds and the read timeout to 10 seconds.
-             * Both need to be set as the connection can time out for either of them */
-            c.setConnectTimeout(5000);
-            c.setReadTimeout(10000);
+    public static long getCacheTtlMillis(URL url) {
+        Uri uri = Uri.parse(url.toString());
+        String appended = uri.getQueryParameter(PARAM_QUERY_APPEND_TO_RESPONSE);
+        if (appended == null) return 0;
 
-            /* get a stream to read data from */
-            BufferedReader in = new BufferedReader(new InputStreamReader(c.getInputStream()));
+        long ttlMillis = Long.MAX_VALUE;
+        for (String path : appended.split(",")) {
+            if (PATH_REVIEWS.equals(path)) {
+                ttlMillis = Math.min(ttlMillis, REVIEWS_CACHE_TTL_MILLIS);
+            } else if (PATH_VIDEOS.equals(path)) {
+                ttlMillis = Math.min(ttlMillis, VIDEOS_CACHE_TTL_MILLIS);
+            }
+        }
+        return ttlMillis == Long.MAX_VALUE ? 0 : ttlMillis;
+    }
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+    /**
+     * @param context Used to access the {@link ConnectivityManager}.
+     * @return TRUE if the device has a connected network.
+     */
+    public static boolean isOnline(Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
 
-            boolean hasInput = scanner.hasNext();
-            if (hasInput) {
-                return scanner.next();
-            } else {
-                return null;
-            }
-        } finally {
-            urlConnection.disconnect();
+    /**
+     * Returns the {@link HttpTransport} shared by every TMDB call in the process. Sharing one
+     * instance lets the sync service and the loaders reuse pooled keep-alive connections.
+     *
+     * @param context Used to access the stored response validators and the cache directory.
+     * @return The shared {@link HttpTransport}.
+     */
+    public static synchronized HttpTransport getHttpTransport(Context context) {
+        if (sHttpTransport == null) {
+            TokenBucket tokenBucket = new TokenBucket(RATE_LIMIT_REQUESTS, RATE_LIMIT_REQUESTS,
+                    RATE_LIMIT_PERIOD_MILLIS);
+            HttpTransport transport = new UrlConnectionTransport(CONNECT_TIMEOUT_MILLIS,
+                    READ_TIMEOUT_MILLIS, MAX_IDLE_CONNECTIONS, MAX_RESPONSE_BODY_BYTES);
+            /* below the dispatcher and the rate limiter, so the hedge delay is timed from when
+             * the first attempt is actually sent, and the hedge never queues. It only takes a
+             * spare token from the bucket. */
+            transport = new HedgingTransport(transport, tokenBucket, MAX_HEDGE_RATIO,
+                    MAX_HEDGES_IN_FLIGHT);
+            /* a slot is only held while a request is on the network. Waiting for a token and
+             * the retry backoffs happen above it, every retry queues again at its priority. */
+            transport = new PriorityDispatchTransport(transport, MAX_REQUESTS_IN_FLIGHT);
+            transport = new RateLimitedTransport(transport, tokenBucket, MAX_RETRIES);
+            transport = new ConditionalGetTransport(context, transport);
+            /* fails fast when offline or TMDB is down, below the cache so cached(even stale)
+             * responses are still served. */
+            transport = new CircuitBreakerTransport(context, transport,
+                    CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_MIN_OPEN_MILLIS, CIRCUIT_MAX_OPEN_MILLIS);
+            sHttpTransport = new CachingTransport(new DiskResponseCache(
+                    new File(context.getApplicationContext().getCacheDir(), RESPONSE_CACHE_DIR),
+                    RESPONSE_CACHE_MAX_BYTES), transport);
         }
+        return sHttpTransport;
+    }
+
+    /**
+     * Replaces the shared {@link HttpTransport}, e.g. to use different timeouts.
+     *
+     * @param httpTransport The transport to use for all subsequent calls.
+     */
+    public static synchronized void setHttpTransport(HttpTransport httpTransport) {
+        sHttpTransport = httpTransport;
     }
 
     /**
@@ -154,7 +284,7 @@ public final class NetworkUtils {
      * @return Returns an Uri after appending the path and query param.
      */
     private static Uri buildUri(String queryParam, String... paths) {
-        Uri.Builder uriBuilder = Uri.parse(TMDB_BASE_URL).buildUpon();
+        Uri.Builder uriBuilder = Uri.parse(sTmdbBaseUrl).buildUpon();
         for (String path : paths) {
             uriBuilder.appendPath(path);
         }